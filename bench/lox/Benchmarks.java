@@ -0,0 +1,282 @@
+package lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * JMH benchmarks for the front end and the engines. They live in their own source root (bench/) but in the lox package
+ * so they can reach the package private classes. Build and run from the repository root with:
+ *
+ *   mvn -Pbench package
+ *   java -jar target/benchmarks.jar -prof gc [-rf json -rff bench_results.json] [regexp, e.g. Benchmarks.scan]
+ *
+ * Every benchmark runs for each workload at three input sizes (statements per generated program), see generate().
+ * -prof gc adds the bytes allocated per operation (gc.alloc.rate.norm) and the GC counts next to the time per op.
+ *
+ * Every benchmark returns what it built, and everything the scripts print goes into the Blackhole, so JIT can't throw
+ * the work away.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class Benchmarks {
+    private static final int BATCH = 64; // records per runBatch, all running the same Program
+
+    @State(Scope.Benchmark)
+    public static class Workload {
+        @Param({ "arithmetic", "string", "scope" })
+        String workload;
+
+        @Param({ "1000", "10000", "100000" })
+        int size;
+
+        String source;
+        TokenBuffer tokens;
+        List<Stmt> statements; // resolved and type inferred, ready for any backend
+        GlobalNames globals; // what statements was resolved with, so what runs it needs too
+
+        @Setup
+        public void setup() {
+            source = generate(workload, size);
+            tokens = new Scanner(source).scanTokenBuffer();
+            statements = new Parser(tokens).parse();
+            globals = new GlobalNames();
+            new Resolver(globals).resolve(statements);
+            new TypeInference().infer(statements);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Compiled { // the backends' output for the workload, compiled once
+        Chunk chunk;
+        CompiledScript script;
+        ClosureScript closures;
+        GlobalNames globals;
+
+        @Setup
+        public void setup(Workload workload) {
+            globals = workload.globals;
+            chunk = new BytecodeCompiler().compile(workload.statements);
+            script = new JvmCompiler().compile(workload.statements); // null if it doesn't fit the class file limits
+            closures = new ClosureCompiler().compile(workload.statements);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Tiered { // every statement promoted and compiled before we measure
+        Engine engine;
+        Program program;
+
+        @Setup
+        public void setup(Workload workload) throws InterruptedException {
+            engine = new Engine(Engine.Mode.TIERED, false, null, new Tiering(1, null));
+            program = engine.compile(workload.source);
+            program.run(engine.capturingContext()); // promotes every statement
+            // steady state is what we want, not the race with the compiler
+            if (!engine.tiering().awaitIdle(5, TimeUnit.MINUTES)) throw new IllegalStateException("Tiering didn't finish.");
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Engines {
+        Engine uncached;
+        Engine cached;
+        Engine lazy;
+        Program program;
+        List<Map<String, Object>> records;
+
+        @Setup
+        public void setup(Workload workload) {
+            uncached = new Engine();
+            cached = new Engine(Engine.Mode.INTERPRETER, false, new ProgramCache(16, Long.MAX_VALUE));
+            cached.compile(workload.source); // so every op is a hit
+            lazy = new Engine(Engine.Mode.INTERPRETER, false, null, null, true);
+            program = uncached.compile(workload.source);
+            records = Collections.nCopies(BATCH, Map.of());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Editor { // one keystroke in the middle of the script and its undo, without and with a line break
+        IncrementalCompiler editor;
+        int middle;
+
+        @Setup(Level.Trial)
+        public void setup(Workload workload) {
+            editor = new IncrementalCompiler(new Engine(), workload.source);
+            middle = workload.source.indexOf('\n', workload.source.length() / 2) + 1;
+        }
+    }
+
+    @Benchmark
+    public TokenBuffer scan(Workload workload) {
+        return new Scanner(workload.source).scanTokenBuffer();
+    }
+
+    @Benchmark
+    public List<Stmt> parse(Workload workload) {
+        return new Parser(workload.tokens).parse();
+    }
+
+    @Benchmark
+    public Interpreter interpret(Workload workload, Blackhole blackhole) {
+        Interpreter interpreter = new Interpreter(workload.globals, new BlackholeSink(blackhole), new Diagnostics());
+        interpreter.interpret(workload.statements);
+        return interpreter;
+    }
+
+    @Benchmark
+    public Interpreter interpretSpecialized(Workload workload, Blackhole blackhole) {
+        Interpreter interpreter = new SpecializingInterpreter(workload.globals, new BlackholeSink(blackhole), new Diagnostics());
+        interpreter.interpret(workload.statements);
+        return interpreter;
+    }
+
+    @Benchmark
+    public VM vm(Compiled compiled, Blackhole blackhole) {
+        VM vm = new VM(compiled.globals, new BlackholeSink(blackhole), new Diagnostics());
+        vm.interpret(compiled.chunk);
+        return vm;
+    }
+
+    @Benchmark
+    public Interpreter jvm(Compiled compiled, Blackhole blackhole) {
+        if (compiled.script == null) throw new IllegalStateException("The workload doesn't fit the class file limits.");
+        Interpreter interpreter = new Interpreter(compiled.globals, new BlackholeSink(blackhole), new Diagnostics());
+        interpreter.interpret(compiled.script);
+        return interpreter;
+    }
+
+    @Benchmark
+    public Interpreter closures(Compiled compiled, Blackhole blackhole) {
+        Interpreter interpreter = new Interpreter(compiled.globals, new BlackholeSink(blackhole), new Diagnostics());
+        interpreter.interpret(compiled.closures);
+        return interpreter;
+    }
+
+    @Benchmark
+    public Interpreter tiered(Tiered tiered, Blackhole blackhole) {
+        Interpreter interpreter = new Interpreter(tiered.engine.globals, new BlackholeSink(blackhole), new Diagnostics());
+        interpreter.interpret(tiered.program.tiered);
+        return interpreter;
+    }
+
+    @Benchmark
+    public Program compile(Workload workload, Engines engines) {
+        return engines.uncached.compile(workload.source);
+    }
+
+    @Benchmark
+    public Program compileCached(Workload workload, Engines engines) {
+        return engines.cached.compile(workload.source);
+    }
+
+    @Benchmark
+    public Program compileLazy(Workload workload, Engines engines) { // block bodies are only checked, not built
+        return engines.lazy.compile(workload.source);
+    }
+
+    @Benchmark
+    public Program edit(Editor editor) {
+        editor.editor.edit(editor.middle, 0, " ");
+        return editor.editor.edit(editor.middle, 1, "");
+    }
+
+    @Benchmark
+    public Program editNewline(Editor editor) {
+        editor.editor.edit(editor.middle, 0, "\n");
+        return editor.editor.edit(editor.middle, 1, "");
+    }
+
+    @Benchmark
+    public List<Context> batch(Engines engines) { // -prof gc only sees this thread's share of the allocations
+        return engines.program.runBatch(engines.records);
+    }
+
+    @Benchmark
+    public Context endToEnd(Workload workload, Engines engines, Blackhole blackhole) { // what `jlox script.lox` does, minus the file
+        Program program = engines.uncached.compile(workload.source);
+        Context context = engines.uncached.newContext(new BlackholeSink(blackhole), new Diagnostics());
+        program.run(context);
+        return context;
+    }
+
+    private static final class BlackholeSink implements OutputSink { // print statements go nowhere, but not for free
+        private final Blackhole blackhole;
+
+        BlackholeSink(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void print(Object value) {
+            blackhole.consume(value);
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    /*
+     * Generated workloads, all straight line code since the language has no loops yet:
+     *  arithmetic - number variables combined with every arithmetic and comparison operator
+     *  string     - string literals and concatenation
+     *  scope      - nested blocks declaring and reading locals several scopes out, plus globals from deep inside
+     */
+    static String generate(String workload, int statements) {
+        StringBuilder source = new StringBuilder();
+        switch (workload) {
+            case "arithmetic":
+                source.append("var a = 1;\nvar b = 2.5;\n");
+                for (int i = 0; i < statements; i++) {
+                    switch (i % 4) {
+                        case 0: source.append("a = (a * 3 + b) / 2 - ").append(i % 7).append(";\n"); break;
+                        case 1: source.append("b = -a + b * (a - 1.5);\n"); break;
+                        case 2: source.append("print a > b == (b <= a);\n"); break;
+                        case 3: source.append("var c").append(i).append(" = a / (b + 1) * 4;\n"); break;
+                    }
+                }
+                break;
+            case "string":
+                source.append("var s = \"lox\";\n");
+                for (int i = 0; i < statements; i++) {
+                    switch (i % 3) {
+                        case 0: source.append("s = \"str").append(i % 10).append("\" + \"ing\";\n"); break;
+                        case 1: source.append("var t").append(i).append(" = s + \" and \" + s;\n"); break;
+                        case 2: source.append("print s + \"!\" == \"string!\";\n"); break;
+                    }
+                }
+                break;
+            case "scope":
+                source.append("var g = 0;\n");
+                for (int i = 0; i < statements; i += 8) {
+                    source.append("{ var x = ").append(i).append("; var y = x + 1;\n")
+                          .append("  { var z = x * y; { var w = z - x; g = g + w; { print w + y + z + g; } } }\n")
+                          .append("  x = y;\n}\n");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(workload);
+        }
+        return source.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/*
+ * The parsed AST of a script, saved next to it as <script>.loxb so the next run can skip the scanner and the parser.
+ * Layout: the magic "LOXB", the format version, AstWriter.SCHEMA (so files from before a node definition changed are
+ * ignored), the SHA-256 of the source, the CRC32 of the rest, then the statements as written by the generated
+ * AstWriter. The header alone can't tell a damaged file from a good one, a flipped bit in the statements can still
+ * read as some other valid tree, so the checksum has to match too. Only the parser's output is stored; optimizing and
+ * resolving still happen on every run, just like for freshly parsed code.
+ */
+final class AstFile {
+    private static final int MAGIC = 0x4c4f5842; // "LOXB"
+    private static final int VERSION = 2;
+
+    private AstFile() {}
+
+    static Path pathFor(Path script) {
+        return script.resolveSibling(script.getFileName() + ".loxb");
+    }
+
+    /*
+     * Loads the saved AST if it's there and was made from exactly this source, otherwise scans and parses it and saves
+     * the result for next time. Code with errors is never saved, so its errors get reported on every run.
+     */
+    static List<Stmt> parse(Path script, String source, Diagnostics diagnostics) {
+        String hash = ProgramCache.key(source);
+        List<Stmt> statements = load(pathFor(script), hash);
+        if (statements != null) return statements;
+
+        statements = new Parser(new Scanner(source, diagnostics).scanTokenBuffer(), diagnostics).parse();
+        if (!diagnostics.hadError()) save(pathFor(script), hash, statements);
+        return statements;
+    }
+
+    static List<Stmt> load(Path path, String hash) { // null if it's missing, stale, or unreadable
+        if (!Files.isRegularFile(path)) return null;
+
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (in.getInt() != MAGIC || in.getInt() != VERSION || in.getInt() != AstWriter.SCHEMA) return null;
+
+            byte[] saved = new byte[hash.length()];
+            in.get(saved);
+            if (!hash.equals(new String(saved, StandardCharsets.US_ASCII))) return null;
+
+            int checksum = in.getInt();
+            if (checksum != checksum(in.duplicate())) return null;
+            List<Stmt> statements = new AstReader(in).readStatements();
+            return in.hasRemaining() ? null : statements; // the writer never leaves anything after the statements
+        } catch (IOException | RuntimeException e) { // a broken file is just a miss, we parse the source instead
+            return null;
+        }
+    }
+
+    static void save(Path path, String hash, List<Stmt> statements) {
+        Path temp = null;
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(); // the checksum goes in front of it
+            try (DataOutputStream out = new DataOutputStream(payload)) {
+                new AstWriter(out).writeStatements(statements);
+            }
+
+            temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(AstWriter.SCHEMA);
+                out.writeBytes(hash); // hex, so one byte per char
+                out.writeInt(checksum(ByteBuffer.wrap(payload.toByteArray())));
+                payload.writeTo(out);
+            }
+            // renamed into place in one step, so another process starting up never reads half a file
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) { // e.g. a read only directory, we just won't have a saved AST next time
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static int checksum(ByteBuffer payload) { // of everything left in payload
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int)crc.getValue();
+    }
+}
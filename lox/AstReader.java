@@ -0,0 +1,105 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// generated by tool/GenerateAst, edit the node definitions there instead
+class AstReader { // reads from a buffer holding the whole file, a stream costs a call per byte
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final ByteBuffer in; // running off the end throws BufferUnderflowException
+    private final List<String> strings = new ArrayList<>();
+
+    AstReader(ByteBuffer in) {
+        this.in = in;
+    }
+
+    List<Stmt> readStatements() throws IOException {
+        return readStmtList();
+    }
+
+    private Expr readExpr() throws IOException {
+        int tag = Byte.toUnsignedInt(in.get());
+        switch (tag) {
+            case 0: throw new IOException("Corrupt AST file: null Expr where there can't be one.");
+            case 1: return new Expr.Assign(readToken(), readExpr());
+            case 2: return new Expr.Binary(readExpr(), readToken(), readExpr());
+            case 3: return new Expr.Grouping(readExpr());
+            case 4: return new Expr.Literal(readObject());
+            case 5: return new Expr.Variable(readToken());
+            case 6: return new Expr.Unary(readToken(), readExpr());
+            default: throw new IOException("Corrupt AST file: unknown Expr tag " + tag + ".");
+        }
+    }
+
+    private Expr readExprOrNull() throws IOException { // for the fields marked with a '?'
+        if (in.get(in.position()) != 0) return readExpr();
+        in.get();
+        return null;
+    }
+
+    private Stmt readStmt() throws IOException {
+        int tag = Byte.toUnsignedInt(in.get());
+        switch (tag) {
+            case 0: throw new IOException("Corrupt AST file: null Stmt where there can't be one.");
+            case 1: return new Stmt.Block(readStmtList());
+            case 2: return new Stmt.Expression(readExpr());
+            case 3: return new Stmt.Print(readExpr());
+            case 4: return new Stmt.Var(readToken(), readExprOrNull());
+            default: throw new IOException("Corrupt AST file: unknown Stmt tag " + tag + ".");
+        }
+    }
+
+    private List<Stmt> readStmtList() throws IOException {
+        int size = readInt();
+        if (size < 0) throw new IOException("Corrupt AST file: negative list size.");
+        List<Stmt> statements = new ArrayList<>(Math.min(size, 1024));
+        for (int i = 0; i < size; i++) statements.add(readStmt());
+        return statements;
+    }
+
+    private Token readToken() throws IOException {
+        int type = Byte.toUnsignedInt(in.get());
+        if (type >= TOKEN_TYPES.length) throw new IOException("Corrupt AST file: unknown token type " + type + ".");
+        return new Token(TOKEN_TYPES[type], readString(), readObject(), readInt());
+    }
+
+    private Object readObject() throws IOException {
+        int tag = Byte.toUnsignedInt(in.get());
+        switch (tag) {
+            case 0: return null;
+            case 1: return in.getDouble();
+            case 2: return readString();
+            case 3: return true;
+            case 4: return false;
+            default: throw new IOException("Corrupt AST file: unknown value tag " + tag + ".");
+        }
+    }
+
+    private int readInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = Byte.toUnsignedInt(in.get());
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Corrupt AST file: int too long.");
+    }
+
+    private String readString() throws IOException {
+        int index = readInt();
+        if (index >= 0 && index < strings.size()) return strings.get(index);
+        if (index != strings.size()) throw new IOException("Corrupt AST file: bad string index " + index + ".");
+
+        int length = readInt();
+        if (length < 0) throw new IOException("Corrupt AST file: negative string length.");
+        if (length > in.remaining()) throw new IOException("Corrupt AST file: truncated string.");
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        strings.add(value);
+        return value;
+    }
+}
@@ -0,0 +1,177 @@
+package lox;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// generated by tool/GenerateAst, edit the node definitions there instead
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int SCHEMA = -914122117;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>(); // every name is written out once, then referenced by index
+
+    AstWriter(DataOutputStream out) {
+        this.out = out;
+    }
+
+    void writeStatements(List<Stmt> statements) throws IOException {
+        try {
+            writeStmtList(statements);
+        } catch (UncheckedIOException e) { // the visitor methods can't throw it themselves
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        writeByte(1);
+        writeToken(expr.name);
+        writeExpr(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        writeByte(2);
+        writeExpr(expr.left);
+        writeToken(expr.operator);
+        writeExpr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        writeByte(3);
+        writeExpr(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        writeByte(4);
+        writeObject(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        writeByte(5);
+        writeToken(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        writeByte(6);
+        writeToken(expr.operator);
+        writeExpr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        writeByte(1);
+        writeStmtList(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        writeByte(2);
+        writeExpr(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        writeByte(3);
+        writeExpr(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        writeByte(4);
+        writeToken(stmt.name);
+        writeExpr(stmt.initializer);
+        return null;
+    }
+
+    private void writeExpr(Expr expr) {
+        if (expr == null) writeByte(0); else expr.accept(this);
+    }
+
+    private void writeStmt(Stmt stmt) {
+        if (stmt == null) writeByte(0); else stmt.accept(this);
+    }
+
+    private void writeStmtList(List<Stmt> statements) {
+        writeInt(statements.size());
+        for (Stmt statement : statements) writeStmt(statement);
+    }
+
+    private void writeToken(Token token) {
+        writeByte(token.type.ordinal());
+        writeString(token.lexeme);
+        writeObject(token.literal);
+        writeInt(token.line); // RuntimeErrors still need to report the right line
+    }
+
+    private void writeObject(Object value) {
+        if (value == null) {
+            writeByte(0);
+        } else if (value instanceof Double) {
+            writeByte(1);
+            try {
+                out.writeDouble((double)value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else if (value instanceof String) {
+            writeByte(2);
+            writeString((String)value);
+        } else if (value instanceof Boolean) {
+            writeByte((boolean)value ? 3 : 4);
+        } else {
+            throw new IllegalArgumentException("Can't serialize " + value.getClass().getSimpleName() + " literals.");
+        }
+    }
+
+    private void writeString(String value) {
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeInt(index);
+            return;
+        }
+        writeInt(strings.size()); // the next free index means a new string follows
+        strings.put(value, strings.size());
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        try {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeByte(int value) {
+        try {
+            out.writeByte(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeInt(int value) { // 7 bits per byte, high bit set means more follow; lines and indexes are mostly 1 byte
+        while ((value & ~0x7f) != 0) {
+            writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        writeByte(value);
+    }
+}
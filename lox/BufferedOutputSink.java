@@ -0,0 +1,40 @@
+package lox;
+
+import java.io.PrintStream;
+
+/*
+ * Default sink. Printed values are formatted straight into one big buffer and written out in large batches, instead
+ * of one synchronized, flushing println per print statement.
+ */
+class BufferedOutputSink implements OutputSink {
+    private static final int CAPACITY = 64 * 1024; // chars buffered before we write them out
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final PrintStream out; // null means whatever System.out is at the time we flush
+    private final StringBuilder buffer = new StringBuilder(CAPACITY + 1024);
+
+    BufferedOutputSink() {
+        this(null);
+    }
+
+    BufferedOutputSink(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void print(Object value) {
+        Interpreter.stringify(value, buffer);
+        buffer.append(NEWLINE);
+        if (buffer.length() >= CAPACITY) flush();
+    }
+
+    @Override
+    public void flush() {
+        if (buffer.length() == 0) return;
+
+        PrintStream stream = out != null ? out : System.out;
+        stream.append(buffer);
+        stream.flush();
+        buffer.setLength(0);
+    }
+}
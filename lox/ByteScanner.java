@@ -0,0 +1,181 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static lox.TokenType.*;
+
+/*
+ * Scanner mode that works straight on the bytes of a (memory mapped) file, no reading into a byte[] and no decoding
+ * into a String first. Everything outside string literals is ASCII, so that's handled one byte at a time; string
+ * literals are only UTF-8 decoded when the parser asks for their value. Produces the same tokens, lines and errors
+ * as Scanner does on the decoded text.
+ */
+class ByteScanner {
+    private final ByteBuffer source;
+    private final int length;
+    private final TokenBuffer tokens;
+    private final Diagnostics diagnostics;
+    private int start = 0;
+    private int current = 0;
+    private int line = 1;
+
+    ByteScanner(ByteBuffer source, Diagnostics diagnostics) {
+        this.source = source;
+        this.length = source.limit();
+        this.tokens = new TokenBuffer(source);
+        this.diagnostics = diagnostics;
+    }
+
+    static ByteScanner map(Path path, Diagnostics diagnostics) throws IOException { // maps the whole file read only, the OS pages it in as we scan
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new ByteScanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), diagnostics); // the mapping outlives the channel
+        }
+    }
+
+    int size() { // in bytes
+        return length;
+    }
+
+    TokenBuffer scanTokenBuffer() {
+        while (!isAtEnd()) {
+            start = current;
+            scanToken();
+        }
+
+        tokens.add(EOF, current, 0, line);
+        return tokens;
+    }
+
+    private void scanToken() {
+        int c = advance();
+        switch (c) {
+            case '(': addToken(LEFT_PAREN); break;
+            case ')': addToken(RIGHT_PAREN); break;
+            case '{': addToken(LEFT_BRACE); break;
+            case '}': addToken(RIGHT_BRACE); break;
+            case ',': addToken(COMMA); break;
+            case '.': addToken(DOT); break;
+            case '-': addToken(MINUS); break;
+            case '+': addToken(PLUS); break;
+            case ';': addToken(SEMICOLON); break;
+            case '*': addToken(STAR); break;
+            case '!':
+                addToken(match('=') ? BANG_EQUAL : BANG);
+                break;
+            case '=':
+                addToken(match('=') ? EQUAL_EQUAL : EQUAL);
+                break;
+            case '<':
+                addToken(match('=') ? LESS_EQUAL: LESS);
+                break;
+            case '>':
+                addToken(match('=') ? GREATER_EQUAL : GREATER);
+                break;
+            case '/':
+                if(match('/')) {
+                    while (peek() != '\n' && !isAtEnd()) advance();
+                } else {
+                    addToken(SLASH);
+                }
+                break;
+            case ' ':
+            case '\r':
+            case '\t':
+                break;
+            case '\n':
+                line++;
+                break;
+            case '"': string(); break;
+            default:
+                if (c >= 0x80) { // non ASCII outside a string, skip the rest of the UTF-8 sequence
+                    unexpectedCharacter(c);
+                } else if (Scanner.isDigit((char)c)) {
+                    number();
+                } else if (Scanner.isAlpha((char)c)) {
+                    identifier();
+                } else {
+                    diagnostics.error(line, "Unexpected character.");
+                }
+                break;
+        }
+    }
+
+    private void unexpectedCharacter(int lead) {
+        while ((peek() & 0xc0) == 0x80) advance(); // continuation bytes
+        diagnostics.error(line, "Unexpected character.");
+        if (lead >= 0xf0) diagnostics.error(line, "Unexpected character."); // 4 byte sequences are two chars (a surrogate pair) to the String scanner
+    }
+
+    private void identifier() {
+        while (Scanner.isAlphaNumeric((char)peek())) advance();
+
+        int symbol = Symbols.intern(source, start, current); // looked up in place, so identifiers never get turned into Strings here
+        TokenType type = Scanner.keyword(symbol);
+        if (type == null) {
+            tokens.add(IDENTIFIER, start, current - start, line, symbol);
+        } else {
+            addToken(type);
+        }
+    }
+
+    private void number() {
+        while (Scanner.isDigit((char)peek())) advance();
+
+        if (peek() == '.' && Scanner.isDigit((char)peekNext())) {
+            advance();
+
+            while (Scanner.isDigit((char)peek())) advance();
+        }
+
+        addToken(NUMBER);
+    }
+
+    private void string() {
+        while (peek() != '"' && !isAtEnd()) { // multi byte UTF-8 never contains '"' or '\n' bytes, so we can stay byte oriented
+            if (peek() == '\n') line++;
+            advance();
+        }
+
+        if (isAtEnd()) {
+            diagnostics.error(line, "Unterminated string.");
+            return;
+        }
+
+        advance();
+        addToken(STRING);
+    }
+
+    private boolean match(char expected) {
+        if (isAtEnd()) return false;
+        if (source.get(current) != expected) return false;
+
+        current++;
+        return true;
+    }
+
+    private int peek() {
+        if (isAtEnd()) return '\0';
+        return source.get(current) & 0xff;
+    }
+
+    private int peekNext() {
+        if (current + 1 >= length) return '\0';
+        return source.get(current + 1) & 0xff;
+    }
+
+    private boolean isAtEnd() {
+        return current >= length;
+    }
+
+    private int advance() {
+        return source.get(current++) & 0xff;
+    }
+
+    private void addToken(TokenType type) {
+        tokens.add(type, start, current - start, line);
+    }
+}
@@ -0,0 +1,190 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Walks the resolved AST once and flattens it into a Chunk for the VM. Operands are evaluated in exactly the same
+ * order as the Interpreter, and every instruction that can fail carries the token the Interpreter would have blamed.
+ * Block scoped variables live in a flat array of local slots: each block starts where its enclosing block's slots end.
+ */
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final Chunk chunk = new Chunk();
+    private final List<Integer> bases = new ArrayList<>(); // first local slot of every block we're currently inside
+    private int nextLocal = 0;
+    private int stackDepth = 0; // tracked while emitting so the VM can size its value stack up front
+
+    Chunk compile(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+        emit(OpCode.RETURN, null);
+        return chunk;
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void emit(byte op, Token token) {
+        chunk.write(op, token);
+        stackDepth += stackEffect(op);
+        if (stackDepth > chunk.maxStack) chunk.maxStack = stackDepth;
+    }
+
+    private void emit(byte op, Token token, int operand) {
+        if (operand > 0xffffff) { // 16 million distinct constants or live locals, a generated script won't get near this
+            throw new IllegalStateException("Too many constants or locals in one chunk.");
+        }
+        emit(op, token);
+        chunk.writeOperand(operand);
+    }
+
+    private static int stackEffect(byte op) { // how many values an instruction leaves on the stack, minus how many it takes off
+        switch (op) {
+            case OpCode.CONSTANT:
+            case OpCode.NIL:
+            case OpCode.TRUE:
+            case OpCode.FALSE:
+            case OpCode.GET_LOCAL:
+            case OpCode.GET_GLOBAL:
+                return 1;
+            case OpCode.SET_LOCAL:
+            case OpCode.SET_GLOBAL:
+            case OpCode.NOT:
+            case OpCode.NEGATE:
+            case OpCode.RETURN:
+                return 0;
+            default: // pops, definitions, print and every binary operator
+                return -1;
+        }
+    }
+
+    private int local(int depth, int slot) { // turns a (depth, slot) pair from the resolver into an absolute local slot
+        return bases.get(bases.size() - 1 - depth) + slot;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.slots == 0) { // declares nothing, so it isn't a scope the resolver counted
+            for (Stmt statement : stmt.statements) {
+                statement.accept(this);
+            }
+            return null;
+        }
+
+        bases.add(nextLocal);
+        nextLocal += stmt.slots;
+        if (nextLocal > chunk.maxLocals) chunk.maxLocals = nextLocal;
+
+        for (Stmt statement : stmt.statements) {
+            statement.accept(this);
+        }
+
+        nextLocal = bases.remove(bases.size() - 1); // sibling blocks reuse the same slots
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT, null);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL, null);
+        }
+
+        if (stmt.slot >= 0) {
+            emit(OpCode.DEFINE_LOCAL, stmt.name, local(0, stmt.slot));
+        } else {
+            emit(OpCode.DEFINE_GLOBAL, stmt.name, chunk.addConstant(stmt.global.index));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+
+        if (expr.depth >= 0) {
+            emit(OpCode.SET_LOCAL, expr.name, local(expr.depth, expr.slot));
+        } else {
+            emit(OpCode.SET_GLOBAL, expr.name, chunk.addConstant(expr.global));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        switch (expr.operator.type) {
+            case GREATER: emit(OpCode.GREATER, expr.operator); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL, expr.operator); break;
+            case LESS: emit(OpCode.LESS, expr.operator); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL, expr.operator); break;
+            case MINUS: emit(OpCode.SUBTRACT, expr.operator); break;
+            case PLUS: emit(OpCode.ADD, expr.operator); break;
+            case SLASH: emit(OpCode.DIVIDE, expr.operator); break;
+            case STAR: emit(OpCode.MULTIPLY, expr.operator); break;
+            case BANG_EQUAL: emit(OpCode.NOT_EQUAL, expr.operator); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL, expr.operator); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression); // grouping only matters to the parser
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL, null);
+        } else if (expr.value.equals(true)) {
+            emit(OpCode.TRUE, null);
+        } else if (expr.value.equals(false)) {
+            emit(OpCode.FALSE, null);
+        } else {
+            emit(OpCode.CONSTANT, null, chunk.addConstant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth >= 0) {
+            emit(OpCode.GET_LOCAL, expr.name, local(expr.depth, expr.slot));
+        } else {
+            emit(OpCode.GET_GLOBAL, expr.name, chunk.addConstant(expr.global)); // the site rides in the constant pool
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        switch (expr.operator.type) {
+            case BANG: emit(OpCode.NOT, expr.operator); break;
+            case MINUS: emit(OpCode.NEGATE, expr.operator); break;
+        }
+        return null;
+    }
+}
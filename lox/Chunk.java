@@ -0,0 +1,55 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A compiled program: a flat array of opcodes and operands, the constant pool they index into, and the source token
+ * behind each instruction so runtime errors can point at the same line the tree walking interpreter would
+ */
+class Chunk {
+    byte[] code = new byte[256];
+    Token[] tokens = new Token[256]; // parallel to code, only set at the first byte of each instruction
+    int count = 0;
+    int maxLocals = 0; // how many local slots the VM has to reserve to run this chunk
+    int maxStack = 0; // deepest the value stack ever gets
+
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndexes = new HashMap<>(); // dedupes repeated literals and names
+    private Object[] constantArray;
+
+    void write(byte value, Token token) {
+        if (count == code.length) { // grows the same way an ArrayList does
+            code = Arrays.copyOf(code, count * 2);
+            tokens = Arrays.copyOf(tokens, count * 2);
+        }
+        code[count] = value;
+        tokens[count] = token;
+        count++;
+    }
+
+    void writeOperand(int value) { // operands are 3 bytes, big endian
+        write((byte)(value >> 16), null);
+        write((byte)(value >> 8), null);
+        write((byte)value, null);
+    }
+
+    int addConstant(Object value) { // returns the index of the constant, adding it to the pool if we haven't seen it yet
+        Integer index = constantIndexes.get(value);
+        if (index != null) return index;
+
+        index = constants.size();
+        constants.add(value);
+        constantIndexes.put(value, index);
+        constantArray = null;
+        return index;
+    }
+
+    Object[] constants() {
+        if (constantArray == null) constantArray = constants.toArray();
+        return constantArray;
+    }
+}
@@ -0,0 +1,324 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Just enough of a JVM class file writer for the JvmCompiler: a deduplicated constant pool, static methods, and a code
+ * buffer with labels. Classes are written as version 49 (Java 5), the last version the verifier still checks by type
+ * inference, so we never have to compute StackMapTable frames for the branches in the generated code.
+ *
+ * Whatever the class file format can't hold (a method over 64K, too many constants, a string constant over 64K, a jump
+ * too far) throws TooLarge. That's the script being too big, not a bug, so it's the only thing JvmCompiler catches.
+ */
+class ClassFileWriter {
+    private static final int VERSION = 49;
+    static final int MAX_POOL = 0xffff;
+
+    static final class TooLarge extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TooLarge(String message) {
+            super(message);
+        }
+    }
+
+    private final String className; // internal form, e.g. lox/CompiledScript
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> entries = new HashMap<>(); // so each constant is only in the pool once
+    private int poolCount = 1; // index 0 is never used
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount = 0;
+
+    ClassFileWriter(String className) {
+        this.className = className;
+    }
+
+    int poolSize() {
+        return poolCount;
+    }
+
+    /*
+     * Constant pool entries, each returns the index of the (possibly already existing) entry
+     */
+    int utf8(String value) {
+        return entry("U" + value, 1, () -> { pool.writeByte(1); pool.writeUTF(value); }); // fails past 64K, see entry()
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return entry("C" + internalName, 1, () -> { pool.writeByte(7); pool.writeShort(name); });
+    }
+
+    int string(String value) {
+        int utf8 = utf8(value);
+        return entry("S" + value, 1, () -> { pool.writeByte(8); pool.writeShort(utf8); });
+    }
+
+    int integer(int value) {
+        return entry("I" + value, 1, () -> { pool.writeByte(3); pool.writeInt(value); });
+    }
+
+    int doubleConstant(double value) { // keyed on the raw bits, so 0.0 and -0.0 stay different constants
+        long bits = Double.doubleToRawLongBits(value);
+        return entry("D" + bits, 2, () -> { pool.writeByte(6); pool.writeLong(bits); }); // doubles take two pool slots
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return memberRef(11, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameUtf8 = utf8(name);
+        int descriptorUtf8 = utf8(descriptor);
+        int nameAndType = entry("N" + name + " " + descriptor, 1, () -> {
+            pool.writeByte(12);
+            pool.writeShort(nameUtf8);
+            pool.writeShort(descriptorUtf8);
+        });
+        return entry(tag + owner + "." + name + descriptor, 1, () -> {
+            pool.writeByte(tag);
+            pool.writeShort(ownerIndex);
+            pool.writeShort(nameAndType);
+        });
+    }
+
+    private interface PoolWrite {
+        void write() throws IOException;
+    }
+
+    private int entry(String key, int slots, PoolWrite write) {
+        Integer index = entries.get(key);
+        if (index != null) return index;
+
+        try {
+            write.write();
+        } catch (UTFDataFormatException e) { // writeUTF's way of saying the string doesn't fit in a constant
+            throw new TooLarge("String constant too large.");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        index = poolCount;
+        poolCount += slots;
+        entries.put(key, index);
+        return index;
+    }
+
+    void addMethod(int access, String name, String descriptor, Code code) {
+        if (code.size > Code.MAX_SIZE) throw new TooLarge("Method " + name + " too large.");
+        code.finish();
+        try {
+            methods.writeShort(access);
+            methods.writeShort(utf8(name));
+            methods.writeShort(utf8(descriptor));
+            methods.writeShort(1); // just the Code attribute
+            methods.writeShort(utf8("Code"));
+            methods.writeInt(12 + code.size);
+            methods.writeShort(code.maxStack);
+            methods.writeShort(code.maxLocals);
+            methods.writeInt(code.size);
+            methods.write(code.bytes, 0, code.size);
+            methods.writeShort(0); // no exception table
+            methods.writeShort(0); // no attributes of the code
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        methodCount++;
+    }
+
+    byte[] toByteArray() {
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        if (poolCount > MAX_POOL) throw new TooLarge("Constant pool too large.");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(0x0030); // ACC_FINAL | ACC_SUPER
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            out.writeShort(0); // class attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static final class Label {
+        private int position = -1;
+        private int stack = -1; // operand stack depth whenever execution arrives here
+        private final List<Integer> jumps = new ArrayList<>(); // addresses of the jumps that still need this position
+    }
+
+    /*
+     * The bytes of one method. Every emit takes the instruction's net effect on the operand stack, so max_stack comes
+     * out of the emitting for free; max_locals is just the highest local index touched.
+     */
+    static final class Code {
+        static final int MAX_SIZE = 0xffff;
+
+        private byte[] bytes = new byte[1024];
+        private int size = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+        private final List<Label> labels = new ArrayList<>();
+
+        Code(int parameterSlots) {
+            this.maxLocals = parameterSlots;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void append(Code other) { // jumps are relative, so finished code can be copied anywhere as is
+            other.finish();
+            if (size + other.size > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + other.size));
+            System.arraycopy(other.bytes, 0, bytes, size, other.size);
+            size += other.size;
+            if (stack + other.maxStack > maxStack) maxStack = stack + other.maxStack;
+            if (other.maxLocals > maxLocals) maxLocals = other.maxLocals;
+        }
+
+        void insn(int opcode, int stackEffect) {
+            put(opcode);
+            adjust(stackEffect);
+        }
+
+        void local(int opcode, int index, int stackEffect) { // aload/astore, with the wide form past 255
+            if (index > 0xff) {
+                put(0xc4);
+                put(opcode);
+                putShort(index);
+            } else {
+                put(opcode);
+                put(index);
+            }
+            int width = opcode == 0x18 || opcode == 0x39 ? 2 : 1; // dload/dstore use two slots
+            if (index + width > maxLocals) maxLocals = index + width;
+            adjust(stackEffect);
+        }
+
+        void pushInt(int value, ClassFileWriter owner) {
+            if (value >= -1 && value <= 5) {
+                put(0x03 + value); // iconst_m1 .. iconst_5
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                put(0x10);
+                put(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                put(0x11);
+                putShort(value);
+            } else {
+                ldc(owner.integer(value), 1);
+                return;
+            }
+            adjust(1);
+        }
+
+        void ldc(int poolIndex, int stackEffect) {
+            if (poolIndex > 0xff) {
+                put(0x13); // ldc_w
+                putShort(poolIndex);
+            } else {
+                put(0x12);
+                put(poolIndex);
+            }
+            adjust(stackEffect);
+        }
+
+        void poolInsn(int opcode, int poolIndex, int stackEffect) { // ldc2_w, field and method refs, checkcast, instanceof
+            put(opcode);
+            putShort(poolIndex);
+            adjust(stackEffect);
+        }
+
+        void invokeInterface(int poolIndex, int argumentSlots, int stackEffect) {
+            put(0xb9);
+            putShort(poolIndex);
+            put(argumentSlots + 1); // the receiver counts too
+            put(0);
+            adjust(stackEffect);
+        }
+
+        Label newLabel() {
+            Label label = new Label();
+            labels.add(label);
+            return label;
+        }
+
+        void jump(int opcode, Label target, int stackEffect) {
+            int address = size;
+            put(opcode);
+            putShort(0); // patched in finish()
+            adjust(stackEffect);
+            target.jumps.add(address);
+            target.stack = stack;
+            if (opcode == 0xa7) stack = -1; // nothing falls through a goto, the next mark() tells us the depth again
+        }
+
+        void mark(Label label) {
+            label.position = size;
+            if (label.stack >= 0) stack = label.stack;
+        }
+
+        void unreachable() { // after an athrow, like after a goto
+            stack = -1;
+        }
+
+        private void finish() {
+            for (Label label : labels) {
+                for (int address : label.jumps) {
+                    int offset = label.position - address;
+                    if (offset != (short)offset) throw new TooLarge("Jump too far.");
+                    bytes[address + 1] = (byte)(offset >> 8);
+                    bytes[address + 2] = (byte)offset;
+                }
+            }
+        }
+
+        private void adjust(int stackEffect) {
+            if (stack < 0) return;
+            stack += stackEffect;
+            if (stack > maxStack) maxStack = stack;
+        }
+
+        private void put(int value) {
+            if (size == bytes.length) bytes = Arrays.copyOf(bytes, size * 2);
+            bytes[size++] = (byte)value;
+        }
+
+        private void putShort(int value) {
+            put(value >> 8);
+            put(value);
+        }
+    }
+}
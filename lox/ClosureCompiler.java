@@ -0,0 +1,331 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lox.ClosureScript.Action;
+import lox.ClosureScript.Node;
+import lox.ClosureScript.NumberNode;
+
+/*
+ * Turns the resolved and type inferred AST into a ClosureScript, once, at compile time. This is the middle ground
+ * between the Interpreter and the JvmCompiler: everything the Interpreter decides again on every evaluation (which
+ * operator, global or local, how many scopes up) is decided here instead and baked into a lambda made just for that
+ * node, but there's no class file to write and nothing for HotSpot to load, so it costs about as much as one more
+ * pass over the tree.
+ *
+ * The lambdas throw the same RuntimeErrors as the Interpreter, blaming the same tokens, and check their operands only
+ * once both are evaluated, so output and errors come out exactly as if the tree was walked.
+ */
+class ClosureCompiler implements Expr.Visitor<Node>, Stmt.Visitor<Action> {
+    private final List<Integer> bases = new ArrayList<>(); // first local of every block we're currently inside
+    private int nextLocal = 0;
+    private int frameSize = 0;
+
+    ClosureScript compile(List<Stmt> statements) {
+        Action[] actions = new Action[statements.size()];
+        for (int i = 0; i < actions.length; i++) actions[i] = statements.get(i).accept(this);
+        return new ClosureScript(actions, frameSize);
+    }
+
+    private Node compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private int local(int depth, int slot) { // turns a (depth, slot) pair from the resolver into an index in the locals array
+        return bases.get(bases.size() - 1 - depth) + slot;
+    }
+
+    /*
+     * Statements
+     */
+    @Override
+    public Action visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.slots == 0) { // declares nothing, so it isn't a scope the resolver counted and has no locals to clear
+            Action[] body = new Action[stmt.statements.size()];
+            for (int i = 0; i < body.length; i++) body[i] = stmt.statements.get(i).accept(this);
+            return frame -> {
+                for (Action statement : body) statement.run(frame);
+            };
+        }
+
+        int base = nextLocal;
+        bases.add(base);
+        nextLocal += stmt.slots;
+        frameSize = Math.max(frameSize, nextLocal);
+
+        Action[] body = new Action[stmt.statements.size()];
+        for (int i = 0; i < body.length; i++) body[i] = stmt.statements.get(i).accept(this);
+
+        nextLocal = bases.remove(bases.size() - 1); // sibling blocks reuse the same locals
+        return ClosureScript.block(body, base, stmt.slots);
+    }
+
+    @Override
+    public Action visitExpressionStmt(Stmt.Expression stmt) {
+        if (TypeInference.isNumber(stmt.expression)) { // the value is thrown away, so don't box it
+            NumberNode number = number(stmt.expression);
+            return frame -> number.eval(frame);
+        }
+
+        Node expression = compile(stmt.expression);
+        return frame -> expression.eval(frame);
+    }
+
+    @Override
+    public Action visitPrintStmt(Stmt.Print stmt) {
+        Node expression = compile(stmt.expression);
+        return frame -> frame.out.print(expression.eval(frame));
+    }
+
+    @Override
+    public Action visitVarStmt(Stmt.Var stmt) {
+        if (stmt.unboxed) {
+            NumberNode initializer = number(stmt.initializer);
+            int index = bases.get(bases.size() - 1) + stmt.slot;
+            return frame -> frame.numbers[index] = initializer.eval(frame);
+        }
+
+        Node initializer = stmt.initializer == null ? frame -> null : compile(stmt.initializer);
+        if (stmt.slot >= 0) {
+            int index = bases.get(bases.size() - 1) + stmt.slot; // always declared in the innermost block
+            return frame -> frame.locals[index] = initializer.eval(frame);
+        }
+
+        int index = stmt.global.index;
+        return frame -> frame.globals.defineGlobal(index, initializer.eval(frame));
+    }
+
+    /*
+     * Expressions
+     */
+    @Override
+    public Node visitAssignExpr(Expr.Assign expr) {
+        if (expr.unboxed) {
+            NumberNode number = number(expr);
+            return frame -> number.eval(frame);
+        }
+
+        Node value = compile(expr.value);
+        if (expr.depth >= 0) {
+            int index = local(expr.depth, expr.slot);
+            return frame -> frame.locals[index] = value.eval(frame);
+        }
+
+        GlobalSite global = expr.global;
+        return frame -> {
+            Object result = value.eval(frame);
+            global.assign(frame.globals, result);
+            return result;
+        };
+    }
+
+    @Override
+    public Node visitVariableExpr(Expr.Variable expr) {
+        if (expr.unboxed) {
+            int index = local(expr.depth, expr.slot);
+            return frame -> frame.numbers[index];
+        }
+        if (expr.depth >= 0) {
+            int index = local(expr.depth, expr.slot);
+            return frame -> frame.locals[index];
+        }
+
+        GlobalSite global = expr.global;
+        return frame -> global.get(frame.globals);
+    }
+
+    @Override
+    public Node visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return frame -> value;
+    }
+
+    @Override
+    public Node visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression); // grouping only ever mattered to the parser
+    }
+
+    @Override
+    public Node visitUnaryExpr(Expr.Unary expr) {
+        if (TypeInference.isNumber(expr)) {
+            NumberNode number = number(expr);
+            return frame -> number.eval(frame); // boxed once, at the top of the numeric subexpression
+        }
+
+        Node right = compile(expr.right);
+        Token operator = expr.operator;
+        switch (operator.type) {
+            case BANG: // MINUS is always numeric, handled above
+                return frame -> !Interpreter.isTruthy(right.eval(frame));
+        }
+
+        throw new IllegalStateException("Unexpected unary operator " + operator.type + ".");
+    }
+
+    @Override
+    public Node visitBinaryExpr(Expr.Binary expr) {
+        if (TypeInference.isNumber(expr)) {
+            NumberNode number = number(expr);
+            return frame -> number.eval(frame);
+        }
+
+        Token operator = expr.operator;
+        if (TypeInference.isNumber(expr.left) && TypeInference.isNumber(expr.right)) { // comparisons of two numbers, no checks needed
+            NumberNode left = number(expr.left);
+            NumberNode right = number(expr.right);
+            switch (operator.type) {
+                case GREATER: return frame -> left.eval(frame) > right.eval(frame);
+                case GREATER_EQUAL: return frame -> left.eval(frame) >= right.eval(frame);
+                case LESS: return frame -> left.eval(frame) < right.eval(frame);
+                case LESS_EQUAL: return frame -> left.eval(frame) <= right.eval(frame);
+            }
+        }
+
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        switch (operator.type) {
+            case PLUS:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double) return (double)a + (double)b;
+                    if (a instanceof String && b instanceof String) return ((String)a).concat((String)b);
+                    throw CompiledScript.addOperands(operator);
+                };
+            case GREATER:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double) return (double)a > (double)b;
+                    throw CompiledScript.numberOperands(operator);
+                };
+            case GREATER_EQUAL:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double) return (double)a >= (double)b;
+                    throw CompiledScript.numberOperands(operator);
+                };
+            case LESS:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double) return (double)a < (double)b;
+                    throw CompiledScript.numberOperands(operator);
+                };
+            case LESS_EQUAL:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double) return (double)a <= (double)b;
+                    throw CompiledScript.numberOperands(operator);
+                };
+            case EQUAL_EQUAL:
+                return frame -> Interpreter.isEqual(left.eval(frame), right.eval(frame));
+            case BANG_EQUAL:
+                return frame -> !Interpreter.isEqual(left.eval(frame), right.eval(frame));
+        }
+
+        throw new IllegalStateException("Unexpected binary operator " + operator.type + ".");
+    }
+
+    /*
+     * Numeric subexpressions, for anything TypeInference.isNumber accepts: they evaluate to a raw double or throw. Operands
+     * that are proven numbers too stay raw doubles all the way down, anything else gets checked once it's evaluated.
+     */
+    private NumberNode number(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            double value = (double)((Expr.Literal)expr).value;
+            return frame -> value;
+        }
+        if (expr instanceof Expr.Grouping) return number(((Expr.Grouping)expr).expression);
+        if (expr instanceof Expr.Unary) return negate((Expr.Unary)expr); // only MINUS is ever numeric
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable)expr;
+            int index = local(variable.depth, variable.slot); // never a global, TypeInference doesn't type those
+            if (variable.unboxed) return frame -> frame.numbers[index];
+            return frame -> (double)frame.locals[index]; // a number right here, even if the slot isn't always one
+        }
+        if (expr instanceof Expr.Assign) return assign((Expr.Assign)expr);
+
+        Expr.Binary binary = (Expr.Binary)expr;
+        Token operator = binary.operator;
+        if (TypeInference.isNumber(binary.left) && TypeInference.isNumber(binary.right)) {
+            NumberNode left = number(binary.left);
+            NumberNode right = number(binary.right);
+            switch (operator.type) {
+                case PLUS: return frame -> left.eval(frame) + right.eval(frame);
+                case MINUS: return frame -> left.eval(frame) - right.eval(frame);
+                case STAR: return frame -> left.eval(frame) * right.eval(frame);
+                case SLASH: return frame -> left.eval(frame) / right.eval(frame);
+            }
+        }
+
+        Node left = compile(binary.left); // PLUS only gets here with two numbers, so this is MINUS, STAR or SLASH
+        Node right = compile(binary.right);
+        switch (operator.type) {
+            case MINUS:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double) return (double)a - (double)b;
+                    throw CompiledScript.numberOperands(operator);
+                };
+            case STAR:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double) return (double)a * (double)b;
+                    throw CompiledScript.numberOperands(operator);
+                };
+            case SLASH:
+                return frame -> {
+                    Object a = left.eval(frame);
+                    Object b = right.eval(frame);
+                    if (a instanceof Double && b instanceof Double) return (double)a / (double)b;
+                    throw CompiledScript.numberOperands(operator);
+                };
+        }
+
+        throw new IllegalStateException("Unexpected numeric operator " + operator.type + ".");
+    }
+
+    private NumberNode assign(Expr.Assign expr) { // of a number, returning it
+        NumberNode value = number(expr.value);
+        if (expr.unboxed) {
+            int index = local(expr.depth, expr.slot);
+            return frame -> frame.numbers[index] = value.eval(frame);
+        }
+        if (expr.depth >= 0) {
+            int index = local(expr.depth, expr.slot);
+            return frame -> {
+                double result = value.eval(frame);
+                frame.locals[index] = result;
+                return result;
+            };
+        }
+
+        GlobalSite global = expr.global;
+        return frame -> {
+            double result = value.eval(frame);
+            global.assign(frame.globals, result);
+            return result;
+        };
+    }
+
+    private NumberNode negate(Expr.Unary expr) {
+        if (TypeInference.isNumber(expr.right)) {
+            NumberNode right = number(expr.right);
+            return frame -> -right.eval(frame);
+        }
+
+        Node right = compile(expr.right);
+        Token operator = expr.operator;
+        return frame -> {
+            Object value = right.eval(frame);
+            if (value instanceof Double) return -(double)value;
+            throw CompiledScript.numberOperand(operator);
+        };
+    }
+}
@@ -0,0 +1,63 @@
+package lox;
+
+import java.util.Arrays;
+
+/*
+ * A Program the ClosureCompiler turned into a tree of lambdas. Every node already knows its operator, its operand
+ * types where those can be known up front, and where its variable lives, so running it is just calling down the tree:
+ * no accept/visit double dispatch, no switch on the operator, no hopping up Environment chains.
+ */
+final class ClosureScript implements Script {
+
+    /*
+     * What one run works on. Block locals use the same flat layout as the BytecodeCompiler, every block owning a range
+     * of the one locals array, so a variable is an array index rather than a (depth, slot) walk. Locals TypeInference
+     * unboxed use the same index in numbers instead.
+     */
+    static final class Frame {
+        final Object[] locals;
+        final double[] numbers;
+        final Environment globals;
+        final OutputSink out;
+
+        Frame(Object[] locals, Environment globals, OutputSink out) {
+            this.locals = locals;
+            this.numbers = new double[locals.length];
+            this.globals = globals;
+            this.out = out;
+        }
+    }
+
+    interface Node { // an expression
+        Object eval(Frame frame);
+    }
+
+    interface NumberNode { // an expression TypeInference.isNumber proved can only be a number, so it never gets boxed
+        double eval(Frame frame);
+    }
+
+    interface Action { // a statement
+        void run(Frame frame);
+    }
+
+    private final Action[] statements;
+    private final int frameSize;
+
+    ClosureScript(Action[] statements, int frameSize) {
+        this.statements = statements;
+        this.frameSize = frameSize;
+    }
+
+    @Override
+    public void run(Environment globals, OutputSink out) {
+        Frame frame = new Frame(new Object[frameSize], globals, out);
+        for (Action statement : statements) statement.run(frame);
+    }
+
+    static Action block(Action[] body, int base, int size) {
+        return frame -> {
+            Arrays.fill(frame.locals, base, base + size, null); // a fresh scope, like the Interpreter's new Environment
+            for (Action statement : body) statement.run(frame);
+        };
+    }
+}
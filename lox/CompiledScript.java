@@ -0,0 +1,58 @@
+package lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+
+/*
+ * A Program compiled to JVM bytecode by the JvmCompiler: the static methods of one or more hidden classes, run one after
+ * another. The generated code keeps no state of its own, so like the rest of a Program this is safe to share between
+ * threads; globals and output come in as arguments on every run.
+ */
+final class CompiledScript implements Script {
+    static final MethodType PART_TYPE =
+            MethodType.methodType(void.class, Token[].class, Environment.class, OutputSink.class, GlobalSite[].class);
+
+    private final MethodHandle[] parts; // each one runs a consecutive group of top level statements
+    private final Token[] tokens; // every token the generated code might blame in a RuntimeError
+    private final GlobalSite[] sites; // every global the generated code reads or assigns
+
+    CompiledScript(MethodHandle[] parts, Token[] tokens, GlobalSite[] sites) {
+        this.parts = parts;
+        this.tokens = tokens;
+        this.sites = sites;
+    }
+
+    @Override
+    public void run(Environment globals, OutputSink out) {
+        for (MethodHandle part : parts) {
+            try {
+                part.invokeExact(tokens, globals, out, sites);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) { // generated code never throws checked exceptions, but invokeExact says it might
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    CompiledScript[] split() { // a script per run method, all sharing the one token and site table
+        CompiledScript[] scripts = new CompiledScript[parts.length];
+        for (int i = 0; i < parts.length; i++) scripts[i] = new CompiledScript(new MethodHandle[] { parts[i] }, tokens, sites);
+        return scripts;
+    }
+
+    /*
+     * Slow paths the generated code calls when a type check fails, same messages as the Interpreter's
+     */
+    static RuntimeError numberOperand(Token operator) {
+        return new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    static RuntimeError numberOperands(Token operator) {
+        return new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    static RuntimeError addOperands(Token operator) {
+        return new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+}
@@ -0,0 +1,94 @@
+package lox;
+
+/*
+ * Everything one execution needs of its own: the globals, where printed output goes, and where runtime errors are
+ * reported. Globals survive between runs, so a Context can run several Programs one after another (like REPL lines).
+ * A Context is meant for one thread at a time; run different scripts concurrently by giving each its own Context.
+ */
+public final class Context {
+    private final Engine engine;
+    private final OutputSink out;
+    private final Diagnostics diagnostics;
+    private final Interpreter interpreter; // set unless the engine runs bytecode
+    private final VM vm; // set when it does
+    private final Profiler profiler; // only in PROFILING mode
+
+    Context(Engine engine, OutputSink out, Diagnostics diagnostics) {
+        this.engine = engine;
+        this.out = out;
+        this.diagnostics = diagnostics;
+        switch (engine.mode) {
+            case VM:
+                this.interpreter = null;
+                this.vm = new VM(engine.globals, out, diagnostics);
+                this.profiler = null;
+                break;
+            case SPECIALIZING:
+                this.interpreter = new SpecializingInterpreter(engine.globals, out, diagnostics);
+                this.vm = null;
+                this.profiler = null;
+                break;
+            case PROFILING:
+                this.profiler = new Profiler();
+                this.interpreter = new ProfilingInterpreter(engine.globals, out, diagnostics, profiler);
+                this.vm = null;
+                break;
+            default:
+                this.interpreter = new Interpreter(engine.globals, out, diagnostics);
+                this.vm = null;
+                this.profiler = null;
+        }
+    }
+
+    public void define(String name, Object value) { // sets a global before the script runs
+        if (value instanceof Number) value = ((Number)value).doubleValue(); // Lox only has one kind of number
+
+        if (vm != null) {
+            vm.define(name, value);
+        } else {
+            interpreter.define(name, value);
+        }
+    }
+
+    public Profiler profiler() { // everything run in this context so far, null unless the engine is in PROFILING mode
+        return profiler;
+    }
+
+    public Diagnostics diagnostics() {
+        return diagnostics;
+    }
+
+    public String output() { // everything printed so far, only for contexts from Engine.capturingContext()
+        if (!(out instanceof StringOutputSink)) throw new IllegalStateException("This context doesn't capture its output.");
+        return out.toString();
+    }
+
+    void run(Program program) {
+        if (program.hadErrors()) throw new IllegalStateException("Can't run a program that failed to compile.");
+        // a Program only fits the engine it came from: the mode picks the backend, but the optimizer, lazy parsing and
+        // tiering settings all shaped what got compiled
+        if (program.engine != engine) throw new IllegalArgumentException("Program was compiled by a different engine.");
+
+        long start = System.nanoTime();
+        Events.Run event = Events.run();
+        int errors = diagnostics.runtimeErrors();
+        long executed = interpreter == null ? 0 : interpreter.executed;
+        long allocated = interpreter == null ? 0 : interpreter.allocated;
+
+        if (vm != null) {
+            vm.interpret(program.chunk);
+        } else if (program.tiered != null) {
+            interpreter.interpret(program.tiered);
+        } else if (program.script != null) {
+            interpreter.interpret(program.script);
+        } else {
+            interpreter.interpret(program.statements);
+        }
+
+        if (interpreter != null) {
+            executed = interpreter.executed - executed;
+            allocated = interpreter.allocated - allocated;
+        }
+        engine.metrics.ran(event, System.nanoTime() - start, engine.mode, executed, allocated, diagnostics.runtimeErrors() != errors);
+    }
+}
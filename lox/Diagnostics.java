@@ -0,0 +1,79 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Collects the compile and runtime errors of one compile or one execution. The command line has a single one that
+ * prints as it goes; every embedded compile and every Context gets its own, so nothing is shared between scripts.
+ */
+public final class Diagnostics {
+    private final PrintStream err; // null means only collect the messages
+    private final List<String> messages = new ArrayList<>();
+    private boolean hadError = false;
+    private boolean hadRuntimeError = false;
+    private int runtimeErrors = 0; // never reset, so Context can tell whether a run added one
+
+    public Diagnostics() {
+        this(null);
+    }
+
+    public Diagnostics(PrintStream err) {
+        this.err = err;
+    }
+
+    public boolean hadError() {
+        return hadError;
+    }
+
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    public List<String> messages() { // every error reported so far, formatted exactly like the command line prints them
+        return Collections.unmodifiableList(messages);
+    }
+
+    int runtimeErrors() {
+        return runtimeErrors;
+    }
+
+    void reset() { // the REPL forgets about errors from the previous line
+        hadError = false;
+        hadRuntimeError = false;
+        messages.clear();
+    }
+
+    /*
+     * Some basic error handling molechanisms
+     */
+    void error(int line, String message) {
+        report(line, "", message); // gives us a line
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) { // if we're at the end of the file and an expression is unclosed, it says so
+            report(token.line, " at end", message);
+        } else { // otherwise, it reports the problematic lexeme and the line it's on
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    void runtimeError(RuntimeError error) {
+        emit(error.getMessage() + "\n[line " + error.token.line + " ]");
+        hadRuntimeError = true;
+        runtimeErrors++;
+    }
+
+    private void report(int line, String where, String message) {
+        emit("[line " + line + "] Error" + where + ": " + message); // this is the actual error message output to the user
+        hadError = true;
+    }
+
+    private void emit(String message) {
+        messages.add(message);
+        if (err != null) err.println(message);
+    }
+}
@@ -0,0 +1,175 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/*
+ * Entry point for embedding Lox. An Engine is just configuration, so one instance can be shared by any number of
+ * threads. compile() turns source into a Program any number of threads can share, and every execution of a Program
+ * happens in its own Context (globals, output, diagnostics) from the same Engine, so many scripts can run at the same
+ * time without seeing each other.
+ *
+ *   Engine engine = new Engine(Engine.Mode.VM, true);
+ *   Program program = engine.compile(source);
+ *   Context context = engine.capturingContext();
+ *   program.run(context);
+ *   String printed = context.output();
+ */
+public final class Engine {
+    public enum Mode {
+        INTERPRETER, // the tree walking Interpreter
+        SPECIALIZING, // Interpreter with self specializing Binary/Unary nodes
+        PROFILING, // the Interpreter, timing every node it runs, see Context.profiler()
+        VM, // bytecode compiled up front, run on the stack VM
+        JVM, // compiled to JVM bytecode in hidden classes, so HotSpot JIT compiles the script itself
+        CLOSURES, // compiled to a tree of lambdas with operators and variable slots already decided
+        TIERED // interpreted first, statements that keep running get compiled like JVM in the background
+    }
+
+    final Mode mode;
+    final boolean optimize;
+    private final ProgramCache cache; // null means every compile starts from scratch
+    private final Tiering tiering; // only used in TIERED mode
+    final boolean lazy; // block bodies are parsed the first time they run, see LazyBlock
+    final Metrics metrics = new Metrics(); // every compile and run through this Engine adds to it
+    final GlobalNames globals = new GlobalNames(); // the global table's layout, shared by all of this Engine's Contexts
+
+    public Engine() {
+        this(Mode.INTERPRETER, false);
+    }
+
+    public Engine(Mode mode, boolean optimize) {
+        this(mode, optimize, null);
+    }
+
+    public Engine(Mode mode, boolean optimize, ProgramCache cache) {
+        this(mode, optimize, cache, mode == Mode.TIERED ? new Tiering() : null);
+    }
+
+    public Engine(Mode mode, boolean optimize, ProgramCache cache, Tiering tiering) {
+        this(mode, optimize, cache, tiering, false);
+    }
+
+    /*
+     * lazy only checks block bodies for syntax errors at compile time and builds each one the first time it runs, so a
+     * script starts sooner and what never runs is never built. Only the tree walking modes can pick a body up halfway through
+     * a run; the others compile everything up front anyway.
+     */
+    public Engine(Mode mode, boolean optimize, ProgramCache cache, Tiering tiering, boolean lazy) {
+        if (mode == Mode.TIERED && tiering == null) throw new IllegalArgumentException("TIERED mode needs a Tiering.");
+        if (lazy && mode != Mode.INTERPRETER && mode != Mode.SPECIALIZING && mode != Mode.PROFILING) {
+            throw new IllegalArgumentException("Lazy parsing needs an interpreting mode, not " + mode + ".");
+        }
+        this.mode = mode;
+        this.optimize = optimize;
+        this.cache = cache;
+        this.tiering = tiering;
+        this.lazy = lazy;
+    }
+
+    public ProgramCache cache() {
+        return cache;
+    }
+
+    public Tiering tiering() {
+        return tiering;
+    }
+
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    public Program compile(String source) { // compile errors end up in the Program rather than being printed
+        return compile(source, new Diagnostics(), false);
+    }
+
+    /*
+     * Source in, Program out, going through the cache when there is one. Programs with errors are never cached, so a
+     * broken script reports its errors every time it's compiled.
+     */
+    Program compile(String source, Diagnostics diagnostics, boolean parallelScan) {
+        String hash = cache == null ? null : ProgramCache.key(source);
+        if (hash != null) {
+            Program cached = cache.lookup(this, hash);
+            if (cached != null) return cached;
+        }
+
+        long start = System.nanoTime();
+        Events.Scan event = Events.scan();
+        TokenBuffer tokens = parallelScan
+                ? new ParallelScanner(source, diagnostics).scanTokenBuffer()
+                : new Scanner(source, diagnostics).scanTokenBuffer();
+        metrics.scanned(event, System.nanoTime() - start, source.length(), tokens.size()); // chars, close enough to bytes for Lox source
+        Program program = compile(tokens, diagnostics);
+        if (hash != null && !program.hadErrors()) cache.store(hash, program, ProgramCache.estimateBytes(tokens));
+        return program;
+    }
+
+    /*
+     * The front end everybody shares: parse, optionally optimize, resolve and infer types, and compile to (VM or JVM) bytecode if the mode needs it
+     */
+    Program compile(TokenBuffer tokens, Diagnostics diagnostics) {
+        long start = System.nanoTime();
+        Events.Parse event = Events.parse();
+        Parser parser = new Parser(tokens, diagnostics, lazy);
+        List<Stmt> statements = parser.parse();
+        metrics.parsed(event, System.nanoTime() - start, tokens.size(), parser.nodes());
+        return compile(statements, diagnostics);
+    }
+
+    TokenBuffer scan(ByteScanner scanner) { // the --mmap path scans outside of compile(), this counts it all the same
+        long start = System.nanoTime();
+        Events.Scan event = Events.scan();
+        TokenBuffer tokens = scanner.scanTokenBuffer();
+        metrics.scanned(event, System.nanoTime() - start, scanner.size(), tokens.size());
+        return tokens;
+    }
+
+    Program compile(List<Stmt> statements, Diagnostics diagnostics) { // for statements that were already parsed (or loaded)
+        if (diagnostics.hadError()) return new Program(this, null, null, null, null, diagnostics.messages(), 0);
+
+        long start = System.nanoTime();
+        Events.Compile event = Events.compile();
+        int eliminated = 0;
+        if (optimize) {
+            Optimizer optimizer = new Optimizer();
+            statements = optimizer.optimize(statements);
+            eliminated = optimizer.eliminated();
+        }
+
+        Resolver resolver = new Resolver(globals);
+        resolver.resolve(statements); // binds every variable reference to its scope and slot ahead of time
+        if (!lazy) new TypeInference().infer(statements); // finds the numeric code every engine but the VM runs unboxed (lazy bodies stay boxed)
+        return link(statements, diagnostics, eliminated, start, event);
+    }
+
+    /*
+     * The mode's own compiler, for statements that already went through the optimizer, Resolver and TypeInference
+     * (IncrementalCompiler does that one top level declaration at a time). start and event are from when that began.
+     */
+    Program link(List<Stmt> statements, Diagnostics diagnostics, int eliminated, long start, Events.Compile event) {
+        Chunk chunk = mode == Mode.VM ? new BytecodeCompiler().compile(statements) : null;
+        Script script = null;
+        if (mode == Mode.JVM) script = new JvmCompiler().compile(statements); // null if it's too big, then we interpret
+        if (mode == Mode.CLOSURES) script = new ClosureCompiler().compile(statements);
+        TieredStatements tiered = mode == Mode.TIERED ? new TieredStatements(tiering, statements) : null;
+        metrics.compiled(event, System.nanoTime() - start, mode, statements.size());
+        return new Program(this, statements, chunk, script, tiered, diagnostics.messages(), eliminated);
+    }
+
+    public Context newContext() { // prints to stdout and stderr, like the command line
+        return newContext(new BufferedOutputSink(), new Diagnostics(System.err));
+    }
+
+    public Context newContext(PrintStream out, PrintStream err) {
+        return newContext(new BufferedOutputSink(out), new Diagnostics(err));
+    }
+
+    public Context capturingContext() { // keeps the output and the errors in memory, see Context.output() and Context.diagnostics()
+        return newContext(new StringOutputSink(), new Diagnostics());
+    }
+
+    Context newContext(OutputSink out, Diagnostics diagnostics) {
+        return new Context(this, out, diagnostics);
+    }
+}
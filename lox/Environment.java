@@ -1,45 +1,121 @@
 package lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class Environment {
-    final Environment enclosing; // sets up "sub" environments
-    private final Map<String, Object> values = new HashMap<>();
+    private static final Object UNDEFINED = new Object(); // marks the indexes no global has been defined for
 
-    Environment() {
+    Environment enclosing; // sets up "sub" environments, and links the Interpreter's pool of unused block scopes
+    private final GlobalNames names; // only in the global scope, where define(String, Object) finds a name's index
+    private Object[] values; // the global table, only in the global scope: indexed by the GlobalSites' indexes
+    private Object[] slots; // block scopes are indexed directly by the slot the resolver handed out
+    private double[] numbers; // the slots TypeInference proved only ever hold numbers live here instead, unboxed
+    private int size; // slots in use, a recycled scope's arrays can be longer than the block it's used for
+
+    Environment(GlobalNames names) {
         enclosing = null;
+        this.names = names;
+        values = new Object[Math.max(16, names.count())];
+        Arrays.fill(values, UNDEFINED);
+        slots = null;
+        numbers = null;
     }
 
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
+    Environment(Environment enclosing, int size) {
+        this(enclosing, size, false);
+    }
+
+    Environment(Environment enclosing, int size, boolean unboxed) {
+        this.names = null;
+        this.values = null;
+        this.slots = new Object[size];
+        enter(enclosing, size, unboxed);
     }
 
-    Object get(Token name) {
-        if(values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+    /*
+     * Makes a block scope ready for another block, so the Interpreter can reuse it instead of allocating. Only ever
+     * called on a scope nothing points to anymore: Lox has no closures, so a scope can't outlive its block.
+     */
+    void enter(Environment enclosing, int size, boolean unboxed) {
+        this.enclosing = enclosing;
+        this.size = size;
+        if (slots.length < size) slots = new Object[size];
+        if (unboxed && (numbers == null || numbers.length < size)) {
+            numbers = new double[size]; // same indexes as slots, each slot only ever uses one of them
         }
+    }
 
-        if(enclosing != null) return enclosing.get(name); // check the enclosed environment recursively to see if it contains our desired variable
+    void leave() { // drops what the block left in its slots so a pooled scope doesn't keep it alive
+        Arrays.fill(slots, 0, size, null);
+    }
 
-        throw new RuntimeError(name,"Undefined variable '" + name.lexeme + "'.");
+    void define(String name, Object value) { // for embedders, everything compiled already has its indexes
+        defineGlobal(names.index(Symbols.intern(name)), value);
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
+    void defineGlobal(int index, Object value) { // redefining a global just overwrites it
+        if (index >= values.length) { // a name the Engine hadn't seen yet when this table was last grown
+            int length = values.length;
+            values = Arrays.copyOf(values, Math.max(index + 1, length * 2));
+            Arrays.fill(values, length, values.length, UNDEFINED);
         }
+        values[index] = value;
+    }
 
-        if (enclosing != null) { 
-            enclosing.assign(name, value);
-            return;
+    /*
+     * Global access for GlobalSite. The Resolver already worked out the index, so the only check left is whether it's
+     * defined, and that's where "Undefined variable" comes from.
+     */
+    Object getGlobal(int index, Token name) {
+        Object[] values = this.values;
+        if (index < values.length) {
+            Object value = values[index];
+            if (value != UNDEFINED) return value;
         }
+        throw undefined(name);
+    }
+
+    void assignGlobal(int index, Token name, Object value) {
+        if (index >= values.length || values[index] == UNDEFINED) throw undefined(name);
+        values[index] = value;
+    }
+
+    private static RuntimeError undefined(Token name) {
+        return new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+
+    /*
+     * Lexically addressed access for block scoped variables, the resolver already worked out how many scopes up (distance) and which slot
+     */
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
+    }
+
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
+    }
+
+    void define(int slot, Object value) {
+        slots[slot] = value;
+    }
+
+    double getNumberAt(int distance, int slot) {
+        return ancestor(distance).numbers[slot];
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    void assignNumberAt(int distance, int slot, double value) {
+        ancestor(distance).numbers[slot] = value;
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
+    void defineNumber(int slot, double value) {
+        numbers[slot] = value;
+    }
+
+    Environment ancestor(int distance) { // walks a fixed number of hops up the chain, no lookups required
+        Environment environment = this;
+        for (int i = 0; i < distance; i++) {
+            environment = environment.enclosing;
+        }
+        return environment;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,115 @@
+package lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * JDK Flight Recorder events for every phase a script goes through, so a recording taken in production shows where a
+ * slow script spent its time without attaching anything. Each one starts timing when it's made and is committed by
+ * Metrics along with the phase's counters. Nothing is recorded (and the fields are never filled in) unless a recording
+ * with the lox events enabled is running, e.g.
+ *
+ *   java -XX:StartFlightRecording=filename=lox.jfr ... then jfr print --events lox.Run lox.jfr
+ *
+ * The factories hand out null until Flight Recorder has been started in this JVM (from the command line or later with
+ * jcmd JFR.start): loading the first Event class sets up JFR's machinery, and that costs the command line a few hundred
+ * milliseconds of startup when nobody is recording.
+ */
+final class Events {
+    private Events() {}
+
+    static Scan scan() {
+        return FlightRecorder.isInitialized() ? new Scan() : null;
+    }
+
+    static Parse parse() {
+        return FlightRecorder.isInitialized() ? new Parse() : null;
+    }
+
+    static Compile compile() {
+        return FlightRecorder.isInitialized() ? new Compile() : null;
+    }
+
+    static Run run() {
+        return FlightRecorder.isInitialized() ? new Run() : null;
+    }
+
+    @Name("lox.Scan")
+    @Label("Lox Scan")
+    @Category("Lox")
+    @Description("Source turned into tokens")
+    @StackTrace(false)
+    static final class Scan extends Event {
+        @Label("Bytes")
+        long bytes;
+
+        @Label("Tokens")
+        int tokens;
+
+        Scan() {
+            begin();
+        }
+    }
+
+    @Name("lox.Parse")
+    @Label("Lox Parse")
+    @Category("Lox")
+    @Description("Tokens turned into an AST")
+    @StackTrace(false)
+    static final class Parse extends Event {
+        @Label("Tokens")
+        int tokens;
+
+        @Label("AST Nodes")
+        int nodes;
+
+        Parse() {
+            begin();
+        }
+    }
+
+    @Name("lox.Compile")
+    @Label("Lox Compile")
+    @Category("Lox")
+    @Description("Optimizer, Resolver, TypeInference and the engine's own compiler")
+    @StackTrace(false)
+    static final class Compile extends Event {
+        @Label("Mode")
+        String mode;
+
+        @Label("Statements")
+        int statements;
+
+        Compile() {
+            begin();
+        }
+    }
+
+    @Name("lox.Run")
+    @Label("Lox Run")
+    @Category("Lox")
+    @Description("One Program run in one Context")
+    @StackTrace(false)
+    static final class Run extends Event {
+        @Label("Mode")
+        String mode;
+
+        @Label("Statements Executed")
+        long statements;
+
+        @Label("Environments Allocated")
+        long environments;
+
+        @Label("Runtime Error")
+        boolean runtimeError;
+
+        Run() {
+            begin();
+        }
+    }
+}
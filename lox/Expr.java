@@ -24,6 +24,11 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+
+    int depth = -1;
+    int slot;
+    GlobalSite global;
+    boolean unboxed;
   }
   static class Binary  extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -40,6 +45,9 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+
+    Specialization specialization = Specialization.UNINITIALIZED;
+    boolean number;
   }
   static class Grouping  extends Expr {
     Grouping(Expr expression) {
@@ -76,6 +84,12 @@ abstract class Expr {
     }
 
     final Token name;
+
+    int depth = -1;
+    int slot;
+    GlobalSite global;
+    boolean number;
+    boolean unboxed;
   }
   static class Unary  extends Expr {
     Unary(Token operator, Expr right) {
@@ -90,6 +104,9 @@ abstract class Expr {
 
     final Token operator;
     final Expr right;
+
+    Specialization specialization = Specialization.UNINITIALIZED;
+    boolean number;
   }
 
  abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,30 @@
+package lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * The globals an Engine's Programs (and its Contexts' embedders) use, each with a small dense index into the global
+ * table. The Resolver hands the index to every GlobalSite, so a Context's table only ever holds the names code from
+ * its own Engine actually uses, not every identifier the process has interned (see Symbols).
+ *
+ * Indexes are only handed out at compile time and by Context.define, so a lock is fine; reading count() isn't locked.
+ */
+final class GlobalNames {
+    private final Map<Integer, Integer> indexes = new HashMap<>(); // symbol ID to index
+    private volatile int count = 0; // only written while holding the lock
+
+    synchronized int index(int symbol) { // the same index every time for the same name, a new one the first time
+        Integer index = indexes.get(symbol);
+        if (index == null) {
+            index = count;
+            indexes.put(symbol, index);
+            count = index + 1;
+        }
+        return index;
+    }
+
+    int count() {
+        return count;
+    }
+}
@@ -0,0 +1,25 @@
+package lox;
+
+/*
+ * One place in the code that reads, assigns or defines a global. The Resolver gives the name its index in the global
+ * table from the Engine's GlobalNames, the same in every Context of that Engine, so there's nothing to look up or
+ * cache: a site is just the index and the token to blame in "Undefined variable" errors. Sites are immutable, so every
+ * thread running the Program can share them.
+ */
+final class GlobalSite {
+    final Token name;
+    final int index;
+
+    GlobalSite(Token name, int index) {
+        this.name = name;
+        this.index = index;
+    }
+
+    Object get(Environment globals) {
+        return globals.getGlobal(index, name);
+    }
+
+    void assign(Environment globals, Object value) {
+        globals.assignGlobal(index, name, value);
+    }
+}
@@ -0,0 +1,319 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/*
+ * Keeps one script compiled while it's being edited, e.g. in an editor that reruns it on every keystroke. Each edit
+ * (offset, removed length, inserted text) only rescans the source around it and only reparses the top level
+ * declarations whose tokens it touched; everything before that is kept as it is, and everything after it is picked up
+ * again as soon as the scanner and then the parser are back in step with the old version.
+ *
+ *   IncrementalCompiler script = new IncrementalCompiler(engine, source);
+ *   Program program = script.edit(42, 1, "+"); // same Program engine.compile() would give for the edited source
+ *
+ * Picking up the rest means moving its tokens along (in place, nobody else sees this TokenBuffer) by the characters
+ * and lines the edit added or took away, and if it changed the number of lines, copying the declarations after it
+ * with their Tokens on the new lines (Tokens can't change, an older Program may still be running them). What's left
+ * per edit that grows with the file is only array and list copying. Only the engine's own compiler (VM, JVM, CLOSURES,
+ * TIERED) still compiles the whole script again.
+ *
+ * Every declaration goes through the optimizer, Resolver and TypeInference on its own when it's parsed: none of them
+ * carry anything from one top level statement over to the next (globals are resolved at runtime), so that's exactly
+ * what compiling the whole file does. Block bodies are always parsed right away here, whatever the Engine's lazy option
+ * says. Scan errors aren't tied to tokens, so an edit after a version that had any starts over from scratch.
+ *
+ * Not thread safe, one per document; the Programs it hands out are as shareable as any other.
+ */
+public final class IncrementalCompiler {
+    private static final class Unit { // one top level declaration
+        final Stmt parsed; // straight from the Parser, what gets copied when an edit moves it to other lines
+        final List<String> errors; // its syntax errors, formatted like Diagnostics does
+        final int length; // how many tokens it took up
+        Stmt compiled; // optimized, resolved and inferred, null if it had errors
+        int eliminated;
+
+        Unit(Stmt parsed, List<String> errors, int length) {
+            this.parsed = parsed;
+            this.errors = errors;
+            this.length = length;
+        }
+
+        int lookahead() { // error recovery looks at the token after a broken declaration to decide where it ended
+            return errors.isEmpty() ? length : length + 1;
+        }
+    }
+
+    private final Engine engine;
+    private String source;
+    private TokenBuffer tokens;
+    private List<Unit> units = new ArrayList<>();
+    private int[] firsts = new int[0]; // the token each unit starts at
+    private boolean scanErrors; // the tokens came with errors we can't place, so the next edit starts over
+    private Program program;
+    private int nodes; // parsed in the current edit, for Metrics
+
+    public IncrementalCompiler(Engine engine, String source) {
+        this.engine = engine;
+        rebuild(source);
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public Program program() { // for the source as of the last edit
+        return program;
+    }
+
+    public Program edit(int offset, int removed, String inserted) {
+        Objects.checkFromIndexSize(offset, removed, source.length());
+        String edited = source.substring(0, offset) + inserted + source.substring(offset + removed);
+        if (scanErrors) return rebuild(edited);
+        int shift = inserted.length() - removed;
+
+        /*
+         * Rescan from the last token that ends at least two characters before the edit (a number looks two characters
+         * past its end, to see whether a fraction follows), until the scanner stops right where one of the old tokens
+         * after the edit starts. From there on the text is the same as before, so the tokens are too.
+         */
+        long start = System.nanoTime();
+        Events.Scan scanEvent = Events.scan();
+        int keep = lastTokenEndingBy(offset - 2); // the tokens before it stay as they are
+        int position = keep < 0 ? 0 : tokens.start(keep);
+        int line = keep < 0 ? 1 : startLine(keep);
+        keep = Math.max(keep, 0);
+        int next = firstTokenFrom(offset + removed); // the old token we're trying to get back in step with
+        TokenBuffer rescanned = new TokenBuffer(edited);
+        Diagnostics diagnostics = new Diagnostics();
+        int from = position;
+        for (;;) {
+            int to = tokens.start(next) + shift;
+            if (position < to) {
+                Scanner scanner = new Scanner(edited, position, to, line, diagnostics);
+                rescanned.addAll(scanner.scanRange());
+                scanner.reportErrors();
+                position = scanner.position();
+                line = scanner.line();
+            }
+            if (position == to) break;
+            while (tokens.start(next) + shift < position) next++; // a token ran past it, try the next one
+        }
+        int tokenShift = keep + rescanned.size() - next;
+        int lineShift = line - startLine(next);
+        tokens.splice(edited, keep, next, rescanned, shift, lineShift);
+        engine.metrics.scanned(scanEvent, System.nanoTime() - start, position - from, rescanned.size());
+
+        return reparse(edited, tokens, diagnostics, keep, next, tokenShift, lineShift);
+    }
+
+    private Program rebuild(String source) {
+        long start = System.nanoTime();
+        Events.Scan scanEvent = Events.scan();
+        Diagnostics diagnostics = new Diagnostics();
+        TokenBuffer scanned = new Scanner(source, diagnostics).scanTokenBuffer();
+        engine.metrics.scanned(scanEvent, System.nanoTime() - start, source.length(), scanned.size());
+        units = new ArrayList<>();
+        firsts = new int[0];
+        return reparse(source, scanned, diagnostics, 0, 0, 0, 0);
+    }
+
+    /*
+     * Tokens before keep are the same as last time, old tokens from next on moved by tokenShift and lineShift. Units that
+     * only looked at the first ones stay, units that start in the second ones are picked up again once parsing lines up
+     * with one of them, and everything in between is parsed again.
+     */
+    private Program reparse(String edited, TokenBuffer rescanned, Diagnostics diagnostics, int keep, int next,
+                            int tokenShift, int lineShift) {
+        long start = System.nanoTime();
+        Events.Parse parseEvent = Events.parse();
+        nodes = 0;
+        int kept = firstUnitLookingAt(keep);
+        List<Unit> updated = new ArrayList<>(units.subList(0, kept));
+        int[] starts = new int[Math.max(firsts.length, 16)];
+        System.arraycopy(firsts, 0, starts, 0, kept);
+        List<Unit> fresh = new ArrayList<>();
+
+        int position = kept == 0 ? 0 : firsts[kept - 1] + units.get(kept - 1).length; // units follow each other
+        int from = position;
+        int old = kept; // the next old unit we might get back in step with
+        while (rescanned.type(position) != TokenType.EOF) {
+            while (old < units.size() && (firsts[old] < next || firsts[old] + tokenShift < position)) old++;
+            if (old < units.size() && firsts[old] + tokenShift == position) break;
+
+            Unit unit = parse(rescanned, position);
+            if (updated.size() == starts.length) starts = Arrays.copyOf(starts, starts.length * 2);
+            starts[updated.size()] = position;
+            updated.add(unit);
+            fresh.add(unit);
+            position += unit.length;
+        }
+        int parsed = position - from;
+
+        if (rescanned.type(position) != TokenType.EOF) { // back in step, the rest moves along
+            int moved = units.size() - old;
+            if (updated.size() + moved > starts.length) starts = Arrays.copyOf(starts, updated.size() + moved);
+            for (int i = old; i < units.size(); i++) {
+                Unit unit = units.get(i);
+                int at = firsts[i] + tokenShift;
+                if (lineShift != 0) {
+                    unit = unit.errors.isEmpty() ? new Unit(unit.parsed.accept(new Mover(lineShift)), unit.errors, unit.length)
+                                                 : parse(rescanned, at); // its messages have the line in them
+                    fresh.add(unit);
+                }
+                starts[updated.size()] = at;
+                updated.add(unit);
+            }
+        }
+        engine.metrics.parsed(parseEvent, System.nanoTime() - start, parsed, nodes);
+
+        source = edited;
+        tokens = rescanned;
+        units = updated;
+        firsts = starts;
+        scanErrors = diagnostics.hadError();
+        return program = compile(fresh, diagnostics.messages());
+    }
+
+    private Program compile(List<Unit> fresh, List<String> scanErrors) {
+        long start = System.nanoTime();
+        Events.Compile event = Events.compile();
+        Optimizer optimizer = engine.optimize ? new Optimizer() : null;
+        Resolver resolver = new Resolver(engine.globals);
+        TypeInference inference = new TypeInference();
+        for (Unit unit : fresh) {
+            if (!unit.errors.isEmpty()) continue;
+            List<Stmt> statement = Collections.singletonList(unit.parsed);
+            if (optimizer != null) {
+                int before = optimizer.eliminated();
+                statement = optimizer.optimize(statement);
+                unit.eliminated = optimizer.eliminated() - before;
+            }
+            resolver.resolve(statement);
+            inference.infer(statement);
+            unit.compiled = statement.get(0);
+        }
+
+        List<String> errors = new ArrayList<>(scanErrors);
+        List<Stmt> statements = new ArrayList<>(units.size());
+        int eliminated = 0;
+        for (Unit unit : units) {
+            errors.addAll(unit.errors);
+            statements.add(unit.compiled);
+            eliminated += unit.eliminated;
+        }
+        if (!errors.isEmpty()) return new Program(engine, null, null, null, null, errors, 0);
+        return engine.link(statements, new Diagnostics(), eliminated, start, event);
+    }
+
+    private Unit parse(TokenBuffer tokens, int first) {
+        Diagnostics diagnostics = new Diagnostics();
+        Parser parser = new Parser(tokens, diagnostics);
+        Stmt stmt = parser.parseDeclaration(first);
+        nodes += parser.nodes();
+        return new Unit(stmt, diagnostics.messages().isEmpty() ? Collections.emptyList() : diagnostics.messages(),
+                parser.position() - first);
+    }
+
+    private int startLine(int token) { // tokens are on the line they end on, which is another one for strings with newlines in them
+        int line = tokens.line(token);
+        for (int i = tokens.start(token); i < tokens.start(token) + tokens.length(token); i++) {
+            if (source.charAt(i) == '\n') line--;
+        }
+        return line;
+    }
+
+    private int lastTokenEndingBy(int offset) { // -1 if there's none
+        int low = 0, high = tokens.size() - 1; // EOF never counts, it's where scanning has to end up anyway
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens.start(mid) + tokens.length(mid) <= offset) low = mid + 1; else high = mid;
+        }
+        return low - 1;
+    }
+
+    private int firstTokenFrom(int offset) { // EOF starts at the very end, so there always is one
+        int low = 0, high = tokens.size() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens.start(mid) < offset) low = mid + 1; else high = mid;
+        }
+        return low;
+    }
+
+    private int firstUnitLookingAt(int token) { // the first unit that saw token (or one after it) while it was parsed
+        int low = 0, high = units.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (firsts[mid] + units.get(mid).lookahead() <= token) low = mid + 1; else high = mid;
+        }
+        return low;
+    }
+
+    private static final class Mover implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> { // copies a declaration onto other lines
+        private final int lines;
+
+        Mover(int lines) {
+            this.lines = lines;
+        }
+
+        private Token move(Token token) {
+            return token.atLine(token.line + lines);
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Stmt.Block stmt) {
+            List<Stmt> statements = new ArrayList<>(stmt.statements.size());
+            for (Stmt statement : stmt.statements) statements.add(statement.accept(this));
+            return new Stmt.Block(statements);
+        }
+
+        @Override
+        public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+            return new Stmt.Expression(stmt.expression.accept(this));
+        }
+
+        @Override
+        public Stmt visitPrintStmt(Stmt.Print stmt) {
+            return new Stmt.Print(stmt.expression.accept(this));
+        }
+
+        @Override
+        public Stmt visitVarStmt(Stmt.Var stmt) {
+            return new Stmt.Var(move(stmt.name), stmt.initializer == null ? null : stmt.initializer.accept(this));
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            return new Expr.Assign(move(expr.name), expr.value.accept(this));
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            return new Expr.Binary(expr.left.accept(this), move(expr.operator), expr.right.accept(this));
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            return new Expr.Grouping(expr.expression.accept(this));
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr) {
+            return new Expr.Literal(expr.value);
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            return new Expr.Variable(move(expr.name));
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            return new Expr.Unary(move(expr.operator), expr.right.accept(this));
+        }
+    }
+}
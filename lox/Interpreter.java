@@ -5,7 +5,29 @@ import java.util.List;
 
 class Interpreter implements Expr.Visitor<Object /* allows the illusion of dynamically typed variables */>, Stmt.Visitor<Void>  { 
 
-    private Environment environment = new Environment();
+    private final Environment globals; // top level variables, indexed by the Engine's GlobalNames
+    private Environment environment;
+    private Environment pool; // block scopes we're done with, linked through their enclosing field
+    private final OutputSink out; // where print statements end up
+    private final Diagnostics diagnostics; // where runtime errors get reported
+    private TieredStatements tiered; // set while interpret(TieredStatements) runs, nested blocks may count too
+    long executed = 0; // statements run and block scopes made so far, Context hands them to Metrics after every run
+    long allocated = 0;
+
+    Interpreter() {
+        this(new GlobalNames(), new BufferedOutputSink(), new Diagnostics(System.err));
+    }
+
+    Interpreter(GlobalNames names, OutputSink out, Diagnostics diagnostics) { // names is what the Programs were resolved with
+        this.globals = new Environment(names);
+        this.environment = globals;
+        this.out = out;
+        this.diagnostics = diagnostics;
+    }
+
+    void define(String name, Object value) { // lets an embedder set up globals before running anything
+        globals.define(name, value);
+    }
 
     void interpret(List<Stmt> statements) {  // essentially the API that allows us o actually interpret a piece of code (ALLOWS US TO USE THE INTERPRETER)
         try {
@@ -13,7 +35,43 @@ class Interpreter implements Expr.Visitor<Object /* allows the illusion of dynam
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            out.flush(); // so everything printed before the error shows up before the error does
+            diagnostics.runtimeError(error);
+        } finally {
+            out.flush();
+        }
+    }
+
+    void interpret(Script script) { // runs a Program compiled to JVM bytecode or closures, against our globals
+        try {
+            script.run(globals, out);
+        } catch (RuntimeError error) {
+            out.flush();
+            diagnostics.runtimeError(error);
+        } finally {
+            out.flush();
+        }
+    }
+
+    void interpret(TieredStatements tiered) { // Engine.Mode.TIERED: each statement runs compiled once it has been
+        List<Stmt> statements = tiered.statements();
+        this.tiered = tiered;
+        try {
+            for (int i = 0; i < statements.size(); i++) {
+                CompiledScript script = tiered.compiled(i);
+                if (script != null) {
+                    script.run(globals, out); // top level, so the only state it shares with us is the globals
+                } else {
+                    tiered.executed(i);
+                    execute(statements.get(i));
+                }
+            }
+        } catch (RuntimeError error) {
+            out.flush();
+            diagnostics.runtimeError(error);
+        } finally {
+            this.tiered = null;
+            out.flush();
         }
     }
 
@@ -24,13 +82,17 @@ class Interpreter implements Expr.Visitor<Object /* allows the illusion of dynam
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if (expr.number) return evaluateNumber(expr); // boxed once, at the top of the numeric subexpression
         Object right = evaluate(expr.right); // evaluates thright side of the expression
+        return unary(expr.operator, right);
+    }
 
-        switch (expr.operator.type) { 
+    Object unary(Token operator, Object right) { // applies a unary operator to an already evaluated operand
+        switch (operator.type) { 
             case BANG:
                 return !isTruthy(right); // boolean check
             case MINUS:
-                checkNumberOperand(expr.operator, right);
+                checkNumberOperand(operator, right);
                 return -(double)right; // negative inversion
         }
 
@@ -39,8 +101,10 @@ class Interpreter implements Expr.Visitor<Object /* allows the illusion of dynam
     }
 
     @Override
-    public Object visitVariableExpr(Expr.Variable expr) { // go straight to the environment whenever we want to access a variable
-        return environment.get(expr.name);
+    public Object visitVariableExpr(Expr.Variable expr) { // go straight to the slot the resolver bound this variable to
+        if (expr.unboxed) return environment.getNumberAt(expr.depth, expr.slot);
+        if (expr.depth >= 0) return environment.getAt(expr.depth, expr.slot);
+        return expr.global.get(globals);
     }
 
     private void checkNumberOperand(Token operator, Object operand) { // if a unary expression for the negative inversion isn't a number, it throws an error
@@ -48,31 +112,54 @@ class Interpreter implements Expr.Visitor<Object /* allows the illusion of dynam
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private boolean isTruthy(Object object) { // checks to see if something is a boolean
+    static boolean isTruthy(Object object) { // checks to see if something is a boolean
         if (object == null) return false; // returns false if its not a boolean
         if (object instanceof Boolean) return (boolean)object; // returns the inversion of the boolean if it is
         return true; // otherwise it just returns true
     }
 
-    private boolean isEqual(Object a, Object b) { // equality method for checking if two objects are equal at runtime
+    static boolean isEqual(Object a, Object b) { // equality method for checking if two objects are equal at runtime
         if (a == null && b == null) return true;
         if (a == null) return false;
 
         return a.equals(b);
     }
 
-    private String stringify(Object object) { // creates a stingification of our output of an expression
-        if (object == null) return "nil"; // if the object is null, it stays that way
+    static String stringify(Object object) { // creates a stingification of our output of an expression
+        StringBuilder builder = new StringBuilder();
+        stringify(object, builder);
+        return builder.toString();
+    }
+
+    static void stringify(Object object, StringBuilder builder) { // appends the stringification in place, so printing doesn't need a String per value
+        if (object == null) { // if the object is null, it stays that way
+            builder.append("nil");
+            return;
+        }
 
         if (object instanceof Double) { // if its a double, it takes the result and turns it into a string that we can output
+            double number = (double)object;
+            if (number == (long)number && Math.abs(number) < 1e7) { // whole numbers Double.toString would print as "123.0", written as a long with no garbage
+                if (number == 0 && Double.doubleToRawLongBits(number) != 0) builder.append('-'); // -0
+                builder.append((long)number);
+                return;
+            }
+
             String text = object.toString();
             if (text.endsWith(".0")) { // hacks off the decimal place when outputting ints, as we treat everything in our java "interpreter" as a double
-                text = text.substring(0, text.length() - 2);
+                builder.append(text, 0, text.length() - 2);
+            } else {
+                builder.append(text);
             }
-            return text;
+            return;
         }
 
-        return object.toString(); // takes other literal types and outputs them
+        if (object instanceof String) {
+            builder.append((String)object);
+            return;
+        }
+
+        builder.append(object.toString()); // takes other literal types and outputs them
     }
 
     @Override
@@ -80,11 +167,66 @@ class Interpreter implements Expr.Visitor<Object /* allows the illusion of dynam
         return evaluate(expr.expression); // recursive evaluation of the subexpression in a grouping of parenthesis
     }
 
-    private Object evaluate(Expr expr) {
+    Object evaluate(Expr expr) {
         return expr.accept(this); // sends the grouped object back into the interpretors visitor implementation
     }
 
-    private void execute(Stmt stmt) {
+    /*
+     * The unboxed path, for expressions TypeInference proved can only be numbers: every intermediate result stays a raw
+     * double, and numeric locals are read straight out of the Environment's double[]. Operands that aren't proven
+     * numbers still get checked, after both sides are evaluated, exactly like binary() does.
+     */
+    double evaluateNumber(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            if (TypeInference.isNumber(binary.left) && TypeInference.isNumber(binary.right)) {
+                double left = evaluateNumber(binary.left);
+                return arithmetic(binary.operator, left, evaluateNumber(binary.right));
+            }
+            Object left = evaluate(binary.left); // only MINUS, STAR and SLASH get here, PLUS needs two numbers to be numeric
+            Object right = evaluate(binary.right);
+            checkNumberOperands(binary.operator, left, right);
+            return arithmetic(binary.operator, (double)left, (double)right);
+        }
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable)expr;
+            if (variable.unboxed) return environment.getNumberAt(variable.depth, variable.slot);
+            return (double)environment.getAt(variable.depth, variable.slot); // holds a number right here, just not always
+        }
+        if (expr instanceof Expr.Literal) return (double)((Expr.Literal)expr).value;
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr; // MINUS, the only numeric unary operator
+            if (TypeInference.isNumber(unary.right)) return -evaluateNumber(unary.right);
+            Object right = evaluate(unary.right);
+            checkNumberOperand(unary.operator, right);
+            return -(double)right;
+        }
+        if (expr instanceof Expr.Grouping) return evaluateNumber(((Expr.Grouping)expr).expression);
+
+        Expr.Assign assign = (Expr.Assign)expr;
+        double value = evaluateNumber(assign.value);
+        if (assign.unboxed) {
+            environment.assignNumberAt(assign.depth, assign.slot, value);
+        } else if (assign.depth >= 0) {
+            environment.assignAt(assign.depth, assign.slot, value);
+        } else {
+            assign.global.assign(globals, value);
+        }
+        return value;
+    }
+
+    private static double arithmetic(Token operator, double left, double right) {
+        switch (operator.type) {
+            case PLUS: return left + right;
+            case MINUS: return left - right;
+            case STAR: return left * right;
+            case SLASH: return left / right;
+        }
+        throw new IllegalStateException("Unexpected numeric operator " + operator.type + ".");
+    }
+
+    void execute(Stmt stmt) {
+        executed++;
         stmt.accept(this); // actually calls and executes the statement
     }
 
@@ -103,61 +245,126 @@ class Interpreter implements Expr.Visitor<Object /* allows the illusion of dynam
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        if (tiered != null) { // a nested block the tiered mode counts on its own, see TieredStatements
+            int unit = tiered.unit(stmt);
+            if (unit >= 0) {
+                CompiledScript script = tiered.compiled(unit);
+                if (script != null) {
+                    script.run(globals, out); // it only touches globals and its own locals, so that's all it needs from us
+                    return null;
+                }
+                tiered.executed(unit);
+            }
+        }
+
+        List<Stmt> statements = stmt.lazy == null ? stmt.statements : stmt.lazy.statements(stmt); // parsing sets slots
+        if (stmt.slots == 0) { // no variables, so the resolver didn't make it a scope either
+            for (Stmt statement : statements) {
+                execute(statement);
+            }
+            return null;
+        }
+
+        Environment scope = pool;
+        if (scope == null) {
+            allocated++;
+            scope = new Environment(environment, stmt.slots, stmt.unboxed);
+        } else {
+            pool = scope.enclosing;
+            scope.enter(environment, stmt.slots, stmt.unboxed);
+        }
+
+        try {
+            executeBlock(statements, scope);
+        } finally { // nothing can hold on to a scope once its block is done, so it goes straight back in the pool
+            scope.leave();
+            scope.enclosing = pool;
+            pool = scope;
+        }
         return null;
     }
 
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
-        evaluate(stmt.expression); // evaluates the expression statment 
+        if (TypeInference.isNumber(stmt.expression)) { // e.g. "x = x + 1;", the result is thrown away so it never needs boxing
+            evaluateNumber(stmt.expression);
+        } else {
+            evaluate(stmt.expression); // evaluates the expression statment 
+        }
         return null;
     }
 
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression); // evaluates the statement part of the expression
-        System.out.println(stringify(value)); // actually prints the value out to the user
+        out.print(value); // hands the value to the output sink, which formats and buffers it
         return null;
     }
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.unboxed) {
+            environment.defineNumber(stmt.slot, evaluateNumber(stmt.initializer));
+            return null;
+        }
+
         Object value = null;
         if(stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value); // adds the key value pair to the environment i our HashMap
+        if (stmt.slot >= 0) {
+            environment.define(stmt.slot, value); // block scoped, so it goes straight into its slot
+        } else {
+            globals.defineGlobal(stmt.global.index, value); // straight into the global table, at the name's index
+        }
         return null;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
+        if (expr.unboxed) return evaluateNumber(expr);
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        if (expr.depth >= 0) {
+            environment.assignAt(expr.depth, expr.slot, value);
+        } else {
+            expr.global.assign(globals, value);
+        }
         return value;
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) { // switch case to evaluate possible binary expressions
+        if (expr.number) return evaluateNumber(expr);
+        if (TypeInference.isNumber(expr.left) && TypeInference.isNumber(expr.right)) { // comparing two numbers, nothing to box
+            switch (expr.operator.type) {
+                case GREATER: return evaluateNumber(expr.left) > evaluateNumber(expr.right);
+                case GREATER_EQUAL: return evaluateNumber(expr.left) >= evaluateNumber(expr.right);
+                case LESS: return evaluateNumber(expr.left) < evaluateNumber(expr.right);
+                case LESS_EQUAL: return evaluateNumber(expr.left) <= evaluateNumber(expr.right);
+            }
+        }
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        return binary(expr.operator, left, right);
+    }
 
-        switch (expr.operator.type) {
+    Object binary(Token operator, Object left, Object right) { // applies a binary operator to already evaluated operands
+        switch (operator.type) {
             case GREATER: // greater than operator
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left > (double)right;
             case GREATER_EQUAL: // greater than or equal to operator
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left >= (double)right;
             case LESS: // less than operator
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left < (double)right;
             case LESS_EQUAL: // less than or equal to operator
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left <= (double)right;
             case MINUS: // subtraction
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left - (double)right;
             case PLUS: // both numerical addition and string concatenation
                 if (left instanceof Double && right instanceof Double) {
@@ -166,12 +373,12 @@ class Interpreter implements Expr.Visitor<Object /* allows the illusion of dynam
                 if (left instanceof String && right instanceof String) {
                     return (String)left + (String)right;
                 }
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+                throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
             case SLASH: // division
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left / (double)right;
             case STAR: // multiplication
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left * (double)right;
             case BANG_EQUAL:
                 return !isEqual(left, right);
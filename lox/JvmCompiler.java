@@ -0,0 +1,557 @@
+package lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Translates the resolved and type inferred AST into JVM bytecode and loads it as hidden classes, so HotSpot profiles
+ * and JIT compiles the script like any other Java code. Every generated method is
+ *
+ *   static void runN(Token[] tokens, Environment globals, OutputSink out, GlobalSite[] sites)
+ *
+ * and runs a group of consecutive top level statements. Block locals become JVM locals (same flat slot layout as the
+ * BytecodeCompiler). A top level block too big to be one JIT friendly method is compiled "framed" instead: its locals
+ * live in an Object[] frame, so its statements can be cut into several methods (pieces) at any statement boundary, even
+ * deep inside nested blocks, and the run method calls the pieces one after another with the same frame.
+ *
+ * Globals go through the same GlobalSites as the Interpreter's, and values are boxed Objects like everywhere else,
+ * except inside arithmetic: anything TypeInference.isNumber knows can only be a number is computed as a raw double and
+ * only boxed once the whole numeric subexpression is done. The dynamic type checks are emitted inline as instanceof
+ * tests with the unboxed arithmetic right behind them, and the failing branch throws the same RuntimeError the
+ * Interpreter would, blaming the same token. Checks still only happen once both operands are evaluated, so side effects
+ * and errors come out in the Interpreter's order.
+ */
+class JvmCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final String CLASS_NAME = "lox/CompiledScript$Generated"; // hidden classes get a unique suffix on top
+    private static final String PART_DESCRIPTOR = "([Llox/Token;Llox/Environment;Llox/OutputSink;[Llox/GlobalSite;)V";
+    private static final String PIECE_DESCRIPTOR = "([Llox/Token;Llox/Environment;Llox/OutputSink;[Llox/GlobalSite;[Ljava/lang/Object;)V";
+    private static final int PARAMETER_SLOTS = 4; // tokens, globals, out, sites
+    private static final int FRAME = 4; // the extra frame parameter of pieces
+    private static final int SPLIT_SIZE = 6000; // HotSpot won't JIT methods over 8000 bytes, so we start a new one before that
+    private static final int SPLIT_POOL = 50000; // and a new class well before the 64K constant pool limit
+
+    // the handful of JVM opcodes we use
+    private static final int ACONST_NULL = 0x01, ICONST_1 = 0x04, LDC2_W = 0x14, DLOAD = 0x18, ALOAD = 0x19,
+            DSTORE = 0x39, ASTORE = 0x3a, AALOAD = 0x32, AASTORE = 0x53, POP = 0x57, DUP = 0x59, DADD = 0x63,
+            DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DNEG = 0x77, IXOR = 0x82, DCMPL = 0x97, DCMPG = 0x98, IFEQ = 0x99,
+            IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e, GOTO = 0xa7, RETURN = 0xb1, GETSTATIC = 0xb2,
+            INVOKEVIRTUAL = 0xb6, INVOKESTATIC = 0xb8, ANEWARRAY = 0xbd, ATHROW = 0xbf, CHECKCAST = 0xc0,
+            INSTANCEOF = 0xc1;
+    private static final int ACC_STATIC = 0x0008;
+
+    private final List<Token> tokens = new ArrayList<>();
+    private final List<GlobalSite> sites = new ArrayList<>();
+    private final List<byte[]> classes = new ArrayList<>();
+    private final List<Integer> partsPerClass = new ArrayList<>();
+    private ClassFileWriter classFile;
+    private ClassFileWriter.Code part; // the run method being filled
+    private ClassFileWriter.Code code; // where we're emitting right now
+    private int parts = 0; // run methods in the current class
+    private int pieces = 0; // pieces in the current class
+    private final List<String> framedPieces = new ArrayList<>(); // the pieces of the block being compiled framed
+    private boolean framed = false;
+    private boolean separate = false; // every top level statement gets a run method of its own, see compileEach()
+    private int frameSize = 0;
+    private final List<Integer> bases = new ArrayList<>(); // first local slot of every block we're currently inside
+    private int nextLocal; // next free Lox local, a JVM local or a frame index
+    private int nextTemp; // next free scratch JVM local for evaluating expressions
+
+    /*
+     * Returns null if the script doesn't fit the class file limits (a single top level statement over 64K of bytecode,
+     * or a string literal over 64K), in which case the caller just keeps interpreting it. Anything else thrown in here
+     * is a bug in the compiler and goes right through, so it can't pass for a script that's merely too big.
+     */
+    CompiledScript compile(List<Stmt> statements) {
+        try {
+            for (Stmt statement : statements) {
+                if (classFile != null && classFile.poolSize() > SPLIT_POOL) finishClass();
+                if (classFile == null) classFile = new ClassFileWriter(CLASS_NAME);
+
+                ClassFileWriter.Code compiled = compileStatement(statement);
+                if (compiled.size() > SPLIT_SIZE && statement instanceof Stmt.Block) {
+                    compiled = compileFramed((Stmt.Block)statement); // one method would be too big for the JIT
+                }
+
+                if (separate || part == null || part.size() + compiled.size() > SPLIT_SIZE) startPart();
+                part.append(compiled);
+            }
+            if (classFile == null) classFile = new ClassFileWriter(CLASS_NAME); // an empty script still gets its one (empty) method
+            if (part == null) startPart();
+            finishClass();
+        } catch (ClassFileWriter.TooLarge e) {
+            return null;
+        }
+        return load();
+    }
+
+    /*
+     * Same, but returns one script per statement, all loaded together, so the tiered mode can swap statements in one
+     * at a time. Null again if any of them doesn't fit.
+     */
+    CompiledScript[] compileEach(List<Stmt> statements) {
+        separate = true;
+        CompiledScript script = compile(statements);
+        return script == null ? null : script.split();
+    }
+
+    private ClassFileWriter.Code compileStatement(Stmt statement) { // into a buffer of its own, compile() decides where it goes
+        code = new ClassFileWriter.Code(PARAMETER_SLOTS);
+        nextLocal = PARAMETER_SLOTS;
+        nextTemp = PARAMETER_SLOTS;
+        statement.accept(this);
+        return code;
+    }
+
+    private ClassFileWriter.Code compileFramed(Stmt.Block block) {
+        framed = true;
+        frameSize = 0;
+        nextLocal = 0;
+        nextTemp = FRAME + 1;
+        framedPieces.clear();
+        code = new ClassFileWriter.Code(FRAME + 1);
+        block.accept(this);
+        finishPiece();
+        framed = false;
+
+        // what goes in the run method: allocate the frame, then call every piece with it
+        code = new ClassFileWriter.Code(PARAMETER_SLOTS);
+        code.pushInt(frameSize, classFile);
+        code.poolInsn(ANEWARRAY, classFile.classRef("java/lang/Object"), 0);
+        code.local(ASTORE, FRAME, -1);
+        for (String piece : framedPieces) {
+            for (int i = 0; i <= FRAME; i++) code.local(ALOAD, i, 1);
+            code.poolInsn(INVOKESTATIC, classFile.methodRef(CLASS_NAME, piece, PIECE_DESCRIPTOR), -4);
+        }
+        return code;
+    }
+
+    private void finishPiece() {
+        String name = "piece" + pieces++;
+        code.insn(RETURN, 0);
+        classFile.addMethod(ACC_STATIC, name, PIECE_DESCRIPTOR, code);
+        framedPieces.add(name);
+    }
+
+    private void nextPiece() { // only between statements: the operand stack is empty and no scratch local is live
+        finishPiece();
+        code = new ClassFileWriter.Code(FRAME + 1);
+    }
+
+    private void startPart() {
+        if (part != null) finishPart();
+        part = new ClassFileWriter.Code(PARAMETER_SLOTS);
+    }
+
+    private void finishPart() {
+        part.insn(RETURN, 0);
+        classFile.addMethod(ACC_STATIC, "run" + parts, PART_DESCRIPTOR, part);
+        parts++;
+        part = null;
+    }
+
+    private void finishClass() {
+        if (part != null) finishPart();
+        classes.add(classFile.toByteArray());
+        partsPerClass.add(parts);
+        classFile = null;
+        parts = 0;
+        pieces = 0;
+    }
+
+    private CompiledScript load() {
+        List<MethodHandle> handles = new ArrayList<>();
+        try {
+            for (int i = 0; i < classes.size(); i++) {
+                // defined next to us in the lox package, so the generated code can call our package private classes
+                MethodHandles.Lookup generated = MethodHandles.lookup().defineHiddenClass(classes.get(i), true);
+                for (int part = 0; part < partsPerClass.get(i); part++) {
+                    handles.add(generated.findStatic(generated.lookupClass(), "run" + part, CompiledScript.PART_TYPE));
+                }
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Generated code failed to load.", e); // a bug in here, not in the script
+        }
+        return new CompiledScript(handles.toArray(new MethodHandle[0]), tokens.toArray(new Token[0]), sites.toArray(new GlobalSite[0]));
+    }
+
+    /*
+     * Small emitting helpers
+     */
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private int local(int depth, int slot) { // turns a (depth, slot) pair from the resolver into a JVM local or frame index
+        return bases.get(bases.size() - 1 - depth) + slot;
+    }
+
+    private void loadLocal(int index) {
+        if (framed) {
+            code.local(ALOAD, FRAME, 1);
+            code.pushInt(index, classFile);
+            code.insn(AALOAD, -1);
+        } else {
+            code.local(ALOAD, index, 1);
+        }
+    }
+
+    private void storeLocal(int index) { // pops the value on top of the stack into a Lox local
+        if (framed) { // aastore wants the array and the index under the value
+            code.local(ASTORE, nextTemp, -1);
+            code.local(ALOAD, FRAME, 1);
+            code.pushInt(index, classFile);
+            code.local(ALOAD, nextTemp, 1);
+            code.insn(AASTORE, -3);
+        } else {
+            code.local(ASTORE, index, -1);
+        }
+    }
+
+    private void loadToken(Token token) { // tokens[i], for globals and for errors
+        code.local(ALOAD, 0, 1);
+        code.pushInt(tokens.size(), classFile);
+        tokens.add(token);
+        code.insn(AALOAD, -1);
+    }
+
+    private void loadSite(GlobalSite site) { // sites[i]
+        code.local(ALOAD, 3, 1);
+        code.pushInt(sites.size(), classFile);
+        sites.add(site);
+        code.insn(AALOAD, -1);
+    }
+
+    private void throwError(String helper, Token token) { // throw CompiledScript.helper(token)
+        loadToken(token);
+        code.poolInsn(INVOKESTATIC, classFile.methodRef("lox/CompiledScript", helper, "(Llox/Token;)Llox/RuntimeError;"), 0);
+        code.insn(ATHROW, -1);
+        code.unreachable();
+    }
+
+    private void checkType(int local, String type, ClassFileWriter.Label fail) { // if (!(local instanceof type)) goto fail
+        code.local(ALOAD, local, 1);
+        code.poolInsn(INSTANCEOF, classFile.classRef(type), 0);
+        code.jump(IFEQ, fail, -1);
+    }
+
+    private void unboxDouble(int local) {
+        code.local(ALOAD, local, 1);
+        code.poolInsn(CHECKCAST, classFile.classRef("java/lang/Double"), 0);
+        code.poolInsn(INVOKEVIRTUAL, classFile.methodRef("java/lang/Double", "doubleValue", "()D"), 1);
+    }
+
+    private void boxDouble() {
+        code.poolInsn(INVOKESTATIC, classFile.methodRef("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;"), -1);
+    }
+
+    private void boxBoolean() {
+        code.poolInsn(INVOKESTATIC, classFile.methodRef("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;"), 0);
+    }
+
+    private void pushBoolean(boolean value) {
+        code.poolInsn(GETSTATIC, classFile.fieldRef("java/lang/Boolean", value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;"), 1);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.slots == 0) { // declares nothing, so it isn't a scope the resolver counted
+            for (Stmt statement : stmt.statements) {
+                if (framed && code.size() > SPLIT_SIZE) nextPiece();
+                statement.accept(this);
+            }
+            return null;
+        }
+
+        bases.add(nextLocal);
+        for (int i = 0; i < stmt.slots; i++) { // a fresh block starts out all nil, same as a new Environment
+            code.insn(ACONST_NULL, 1);
+            storeLocal(nextLocal + i);
+        }
+        nextLocal += stmt.slots;
+        if (framed) {
+            frameSize = Math.max(frameSize, nextLocal);
+        } else {
+            nextTemp = nextLocal; // scratch locals go above the block's own
+        }
+
+        for (Stmt statement : stmt.statements) {
+            if (framed && code.size() > SPLIT_SIZE) nextPiece();
+            statement.accept(this);
+        }
+
+        nextLocal = bases.remove(bases.size() - 1); // sibling blocks reuse the same locals
+        if (!framed) nextTemp = nextLocal;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        code.insn(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        code.local(ALOAD, 2, 1);
+        compile(stmt.expression);
+        code.invokeInterface(classFile.interfaceMethodRef("lox/OutputSink", "print", "(Ljava/lang/Object;)V"), 1, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.slot >= 0) {
+            compileOrNil(stmt.initializer);
+            storeLocal(local(0, stmt.slot));
+        } else {
+            code.local(ALOAD, 1, 1);
+            code.pushInt(stmt.global.index, classFile); // an Engine never changes a name's index, and Programs don't leave it
+            compileOrNil(stmt.initializer);
+            code.poolInsn(INVOKEVIRTUAL, classFile.methodRef("lox/Environment", "defineGlobal", "(ILjava/lang/Object;)V"), -3);
+        }
+        return null;
+    }
+
+    private void compileOrNil(Expr initializer) {
+        if (initializer != null) {
+            compile(initializer);
+        } else {
+            code.insn(ACONST_NULL, 1);
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        code.insn(DUP, 1); // an assignment is an expression, its value stays on the stack
+
+        if (expr.depth >= 0) {
+            storeLocal(local(expr.depth, expr.slot));
+        } else {
+            int value = nextTemp; // a scratch local, so the arguments go on the stack in the right order
+            code.local(ASTORE, value, -1);
+            loadSite(expr.global);
+            code.local(ALOAD, 1, 1);
+            code.local(ALOAD, value, 1);
+            code.poolInsn(INVOKEVIRTUAL, classFile.methodRef("lox/GlobalSite", "assign", "(Llox/Environment;Ljava/lang/Object;)V"), -3);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        switch (expr.operator.type) {
+            case EQUAL_EQUAL:
+            case BANG_EQUAL: // anything can be compared, so no checks, just Interpreter.isEqual
+                compile(expr.left);
+                compile(expr.right);
+                code.poolInsn(INVOKESTATIC, classFile.methodRef("lox/Interpreter", "isEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Z"), -1);
+                if (expr.operator.type == TokenType.BANG_EQUAL) {
+                    code.insn(ICONST_1, 1);
+                    code.insn(IXOR, -1);
+                }
+                boxBoolean();
+                return null;
+            default:
+                break;
+        }
+
+        if (TypeInference.isNumber(expr)) {
+            compileNumber(expr);
+            boxDouble();
+            return null;
+        }
+
+        if (expr.operator.type != TokenType.PLUS) { // the comparisons, the only other operators left that need numbers
+            numberOperands(expr);
+            switch (expr.operator.type) {
+                // dcmpl/dcmpg pick the NaN result that makes the comparison false, just like Java's own operators
+                case GREATER: compare(DCMPL, IFLE); break;
+                case GREATER_EQUAL: compare(DCMPL, IFLT); break;
+                case LESS: compare(DCMPG, IFGE); break;
+                case LESS_EQUAL: compare(DCMPG, IFGT); break;
+                default: throw new IllegalStateException("Unexpected binary operator " + expr.operator.type);
+            }
+            return null;
+        }
+
+        int left = nextTemp++; // both operands go into scratch locals so the checks can look at them more than once
+        int right = nextTemp++;
+        compile(expr.left);
+        code.local(ASTORE, left, -1);
+        compile(expr.right);
+        code.local(ASTORE, right, -1);
+
+        ClassFileWriter.Label fail = code.newLabel();
+        ClassFileWriter.Label end = code.newLabel();
+        ClassFileWriter.Label strings = code.newLabel();
+        checkType(left, "java/lang/Double", strings);
+        checkType(right, "java/lang/Double", fail);
+        unboxDouble(left);
+        unboxDouble(right);
+        code.insn(DADD, -2);
+        boxDouble();
+        code.jump(GOTO, end, 0);
+
+        code.mark(strings);
+        checkType(left, "java/lang/String", fail);
+        checkType(right, "java/lang/String", fail);
+        code.local(ALOAD, left, 1);
+        code.poolInsn(CHECKCAST, classFile.classRef("java/lang/String"), 0);
+        code.local(ALOAD, right, 1);
+        code.poolInsn(CHECKCAST, classFile.classRef("java/lang/String"), 0);
+        code.poolInsn(INVOKEVIRTUAL, classFile.methodRef("java/lang/String", "concat", "(Ljava/lang/String;)Ljava/lang/String;"), -1);
+        code.jump(GOTO, end, 0);
+
+        code.mark(fail);
+        throwError("addOperands", expr.operator);
+
+        code.mark(end);
+        nextTemp -= 2;
+        return null;
+    }
+
+    /*
+     * Leaves the value of a TypeInference.isNumber expression on the stack as a raw double
+     */
+    private void compileNumber(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            code.poolInsn(LDC2_W, classFile.doubleConstant((double)((Expr.Literal)expr).value), 2);
+        } else if (expr instanceof Expr.Grouping) {
+            compileNumber(((Expr.Grouping)expr).expression);
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            int start = nextTemp;
+            int operand = stash(unary.right);
+            if (!TypeInference.isNumber(unary.right)) checkNumbers(unary.operator, "numberOperand", operand, -1);
+            loadNumber(unary.right, operand);
+            code.insn(DNEG, 0);
+            nextTemp = start;
+        } else if (expr instanceof Expr.Variable || expr instanceof Expr.Assign) { // our locals stay boxed, so just unbox it
+            compile(expr);
+            code.poolInsn(CHECKCAST, classFile.classRef("java/lang/Double"), 0);
+            code.poolInsn(INVOKEVIRTUAL, classFile.methodRef("java/lang/Double", "doubleValue", "()D"), 1);
+        } else {
+            Expr.Binary binary = (Expr.Binary)expr;
+            numberOperands(binary);
+            switch (binary.operator.type) {
+                case PLUS: code.insn(DADD, -2); break;
+                case MINUS: code.insn(DSUB, -2); break;
+                case STAR: code.insn(DMUL, -2); break;
+                case SLASH: code.insn(DDIV, -2); break;
+                default: throw new IllegalStateException("Unexpected numeric operator " + binary.operator.type);
+            }
+        }
+    }
+
+    private void numberOperands(Expr.Binary expr) { // evaluates both sides, checks them, and leaves them as two doubles
+        int start = nextTemp;
+        int left = stash(expr.left);
+        int right = stash(expr.right);
+        checkNumbers(expr.operator, "numberOperands",
+                TypeInference.isNumber(expr.left) ? -1 : left, TypeInference.isNumber(expr.right) ? -1 : right);
+        loadNumber(expr.left, left);
+        loadNumber(expr.right, right);
+        nextTemp = start;
+    }
+
+    private int stash(Expr operand) { // evaluates into a scratch local, a double one if it's known to be a number
+        int local = nextTemp;
+        if (TypeInference.isNumber(operand)) {
+            compileNumber(operand);
+            nextTemp += 2; // doubles take two locals
+            code.local(DSTORE, local, -2);
+        } else {
+            compile(operand);
+            nextTemp += 1;
+            code.local(ASTORE, local, -1);
+        }
+        return local;
+    }
+
+    private void loadNumber(Expr operand, int local) {
+        if (TypeInference.isNumber(operand)) {
+            code.local(DLOAD, local, 2);
+        } else {
+            unboxDouble(local);
+        }
+    }
+
+    private void checkNumbers(Token operator, String error, int first, int second) { // -1 means nothing to check
+        if (first < 0 && second < 0) return;
+
+        ClassFileWriter.Label fail = code.newLabel();
+        ClassFileWriter.Label ok = code.newLabel();
+        if (first >= 0) checkType(first, "java/lang/Double", fail);
+        if (second >= 0) checkType(second, "java/lang/Double", fail);
+        code.jump(GOTO, ok, 0);
+
+        code.mark(fail);
+        throwError(error, operator);
+        code.mark(ok);
+    }
+
+    private void compare(int compare, int jumpIfFalse) {
+        ClassFileWriter.Label isFalse = code.newLabel();
+        ClassFileWriter.Label done = code.newLabel();
+        code.insn(compare, -3);
+        code.jump(jumpIfFalse, isFalse, -1);
+        pushBoolean(true);
+        code.jump(GOTO, done, 0);
+        code.mark(isFalse);
+        pushBoolean(false);
+        code.mark(done);
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            code.insn(ACONST_NULL, 1);
+        } else if (expr.value instanceof Boolean) {
+            pushBoolean((boolean)expr.value);
+        } else if (expr.value instanceof Double) {
+            code.poolInsn(LDC2_W, classFile.doubleConstant((double)expr.value), 2);
+            boxDouble(); // Double.valueOf of a constant, C2 can usually drop the box again
+        } else {
+            code.ldc(classFile.string((String)expr.value), 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth >= 0) {
+            loadLocal(local(expr.depth, expr.slot));
+        } else {
+            loadSite(expr.global);
+            code.local(ALOAD, 1, 1);
+            code.poolInsn(INVOKEVIRTUAL, classFile.methodRef("lox/GlobalSite", "get", "(Llox/Environment;)Ljava/lang/Object;"), -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.BANG) {
+            compile(expr.right);
+            code.poolInsn(INVOKESTATIC, classFile.methodRef("lox/Interpreter", "isTruthy", "(Ljava/lang/Object;)Z"), 0);
+            code.insn(ICONST_1, 1);
+            code.insn(IXOR, -1);
+            boxBoolean();
+            return null;
+        }
+
+        compileNumber(expr);
+        boxDouble();
+        return null;
+    }
+}
@@ -0,0 +1,60 @@
+package lox;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The body of a block the Parser only checked (Engine's lazy option). The first time the block runs, its body is built
+ * from the tokens it was skipped over in and resolved against the scopes it sat in, and from then on it behaves like
+ * any other block. A block that never runs never costs more than this.
+ *
+ * The check already reported any syntax errors in the body at compile time, like an eager parse would have, and a
+ * Program with errors never runs, so building the body can't fail.
+ */
+final class LazyBlock {
+    private final TokenBuffer tokens;
+    private final int start; // first token after the '{'
+    private final int line;
+    private GlobalNames globals; // set by the Resolver, see Resolver(GlobalNames, List, int[])
+    private List<Map<String, Integer>> scopes;
+    private int[] sizes;
+    private volatile List<Stmt> statements; // null until the first run parsed them
+
+    LazyBlock(TokenBuffer tokens, int start, int line) {
+        this.tokens = tokens;
+        this.start = start;
+        this.line = line;
+    }
+
+    int line() { // of the '{'
+        return line;
+    }
+
+    void enclosing(GlobalNames globals, List<Map<String, Integer>> scopes, int[] sizes) {
+        this.globals = globals;
+        this.scopes = scopes;
+        this.sizes = sizes;
+    }
+
+    /*
+     * The block's statements, parsing and resolving them first if nobody has yet. Every Context running the Program
+     * shares the block, so that only happens once, under the TokenBuffer's lock (its literals aren't safe to parse from
+     * two threads at once). Fills in block.slots before anyone can see the statements.
+     */
+    List<Stmt> statements(Stmt.Block block) {
+        List<Stmt> parsed = statements;
+        if (parsed != null) return parsed;
+
+        synchronized (tokens) {
+            if (statements != null) return statements;
+
+            List<Stmt> body = new Parser(tokens, new Diagnostics(), true).parseBody(start); // checked already, no errors to report
+            new Resolver(globals, scopes, sizes).resolveBlock(block, body);
+            globals = null; // not needed anymore
+            scopes = null;
+            sizes = null;
+            statements = body;
+            return body;
+        }
+    }
+}
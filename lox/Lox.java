@@ -3,16 +3,90 @@ package lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    private static final String USAGE = "Usage: jlox [--vm | --specialize | --jvm | --closures | --tiered | --profile] [--trace-tiers] [--metrics] "
+            + "[--optimize] [--lazy] [--mmap | --parallel-scan | --ast-cache] [script]";
+    private static final Diagnostics diagnostics = new Diagnostics(System.err); // the command line prints errors as they happen
+    private static Engine engine = new Engine(Engine.Mode.INTERPRETER, false, newCache());
+    private static Context context = engine.newContext(new BufferedOutputSink(), diagnostics); // globals live as long as the process
+    private static boolean mapFile = false; // --mmap scans the script's bytes in place instead of decoding it into a String
+    private static boolean parallelScan = false; // --parallel-scan splits big sources into chunks scanned on all cores
+    private static boolean astCache = false; // --ast-cache saves the parsed script next to it and loads that next time
+    private static boolean traceTiers = false; // --trace-tiers prints every tier change in --tiered mode
+    private static boolean printMetrics = false; // --metrics prints the engine's phase counters once the script is done
+
+    private static ProgramCache newCache() {
+        return new ProgramCache(256, 64L * 1024 * 1024);
+    }
+
+    private static Tiering.Listener tierTracer() { // same style as the optimizer's report, on stderr so it never mixes with output
+        return new Tiering.Listener() {
+            @Override
+            public void promoted(int statement, int line, int executions) {
+                System.err.println("[tier] statement " + statement + " (line " + line + ") hot after " + executions + " runs");
+            }
+
+            @Override
+            public void compiled(int statement, int line, long nanos) {
+                System.err.println("[tier] statement " + statement + " (line " + line + ") compiled in " + nanos / 1000 + " us");
+            }
+
+            @Override
+            public void failed(int statement, int line) {
+                System.err.println("[tier] statement " + statement + " (line " + line + ") too big to compile, stays interpreted");
+            }
+        };
+    }
+
     public static void main(String[] args) throws IOException{
+        List<String> scripts = new ArrayList<>();
+        Engine.Mode mode = Engine.Mode.INTERPRETER;
+        boolean optimize = false;
+        boolean lazy = false;
+        for (String arg : args) { // pulls the engine flags out, whatever is left is the script
+            switch (arg) {
+                case "--vm": mode = Engine.Mode.VM; break; // compiles to bytecode and runs that instead of walking the tree
+                case "--specialize": mode = Engine.Mode.SPECIALIZING; break; // self specializing Binary/Unary nodes
+                case "--jvm": mode = Engine.Mode.JVM; break; // compiles to JVM bytecode and lets HotSpot take it from there
+                case "--closures": mode = Engine.Mode.CLOSURES; break; // pre-bound lambdas instead of visiting the tree
+                case "--tiered": mode = Engine.Mode.TIERED; break; // interprets, then compiles what keeps running
+                case "--profile": mode = Engine.Mode.PROFILING; break; // times every node, see writeProfile()
+                case "--trace-tiers": traceTiers = true; break;
+                case "--metrics": printMetrics = true; break;
+                case "--optimize": optimize = true; break; // folds constants before anything runs
+                case "--lazy": lazy = true; break; // block bodies are parsed when they first run
+                case "--mmap": mapFile = true; break;
+                case "--parallel-scan": parallelScan = true; break;
+                case "--ast-cache": astCache = true; break;
+                default:
+                    if (arg.startsWith("--")) {
+                        System.out.println(USAGE);
+                        System.exit(64);
+                    }
+                    scripts.add(arg);
+            }
+        }
+        if ((mapFile ? 1 : 0) + (parallelScan ? 1 : 0) + (astCache ? 1 : 0) > 1) { // each one is a different way of getting the tokens
+            System.out.println(USAGE);
+            System.exit(64);
+        }
+        if (lazy && mode != Engine.Mode.INTERPRETER && mode != Engine.Mode.SPECIALIZING && mode != Engine.Mode.PROFILING) {
+            System.out.println("--lazy only works with the interpreting modes (the default, --specialize or --profile)");
+            System.exit(64);
+        }
+        engine = mode == Engine.Mode.TIERED
+                ? new Engine(mode, optimize, newCache(), new Tiering(Tiering.DEFAULT_THRESHOLD, traceTiers ? tierTracer() : null))
+                : new Engine(mode, optimize, newCache(), null, lazy);
+        context = engine.newContext(new BufferedOutputSink(), diagnostics);
+
         /* 
         if (args.length > 1) {
             System.out.println("Usage jlox [script]");
@@ -23,17 +97,43 @@ public class Lox {
             runPrompt();
         }
         */
-        runFile("loxtest");
+        runFile(scripts.isEmpty() ? "loxtest" : scripts.get(0));
     }
 
     /*
      * If given a file, our interpreter finds it and executes it
      */
     private static void runFile(String path) throws IOException{
-        byte[] bytes  = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+        if (astCache) {
+            String source = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+            run(engine.compile(AstFile.parse(Paths.get(path), source, diagnostics), diagnostics));
+        } else if (mapFile) {
+            run(engine.scan(ByteScanner.map(Paths.get(path), diagnostics)));
+        } else {
+            byte[] bytes  = Files.readAllBytes(Paths.get(path));
+            run(new String(bytes, Charset.defaultCharset()));
+        }
+        if (context.profiler() != null && !diagnostics.hadError()) writeProfile(path); // nothing ran if it didn't compile
+        if (printMetrics) {
+            for (Map.Entry<String, Long> metric : engine.metrics().snapshot().entrySet()) {
+                System.err.println("[metrics] " + metric.getKey() + " " + metric.getValue());
+            }
+        }
+        if (diagnostics.hadError()) System.exit(65);
+        if (diagnostics.hadRuntimeError()) System.exit(70);
+    }
+
+    /*
+     * --profile: the hottest nodes go to stderr, the full profile goes next to the script as collapsed stacks, e.g. for
+     * flamegraph.pl script.lox.collapsed > script.svg
+     */
+    private static void writeProfile(String path) throws IOException {
+        System.err.println("[profile] hottest nodes by self time");
+        context.profiler().writeReport(System.err, 20);
+        try (PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(path + ".collapsed")), false, "UTF-8")) {
+            context.profiler().writeCollapsed(out);
+        }
+        System.err.println("[profile] collapsed stacks written to " + path + ".collapsed");
     }
 
     /*
@@ -49,7 +149,7 @@ public class Lox {
             String line = reader.readLine(); // reads in a line from the user
             if (line == null) break; //exits the loop if we type in nothing
             run(line); //runs and executes the line
-            hadError = false;
+            diagnostics.reset();
         }
     }
 
@@ -57,39 +157,24 @@ public class Lox {
     /*
      * Tokenizes the line and runs it
      */
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        if(hadError) return;
-
-        interpreter.interpret(statements);
+    static void run(String source) {
+        run(engine.compile(source, diagnostics, parallelScan)); // repeated sources come straight out of the cache
     }
 
     /*
-     * Some basic error handling molechanisms
+     * Parses and runs an already scanned program
      */
-    static void error(int line, String message) {
-        report(line, "", message); // gives us a line
-    }
-
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + " ]");
-        hadRuntimeError = true;
+    private static void run(TokenBuffer tokens) {
+        run(engine.compile(tokens, diagnostics));
     }
 
-    static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message); // this is the actual error message output to the user
-        hadError = true;
-    }
+    private static void run(Program program) {
+        if (program.hadErrors()) return;
 
-    static void error(Token token, String message) { 
-        if (token.type == TokenType.EOF) { // if we're at the end of the file and an expression is unclosed, it says so
-            report(token.line, " at end", message);
-        } else { // otherwise, it reports the problematic lexeme and the line it's on
-            report(token.line, " at '" + token.lexeme + "'", message);
+        if (engine.optimize) {
+            System.err.println("[optimizer] eliminated " + program.eliminatedNodes() + " nodes"); // so we can measure what it bought us
         }
+
+        program.run(context);
     }
 }
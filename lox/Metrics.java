@@ -0,0 +1,105 @@
+package lox;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Running totals for everything an Engine has done, per phase: how often it ran, how long it took, and what it
+ * produced. Every thread compiling or running through the Engine adds to the same counters, so they're LongAdders and
+ * cost about as much as a plain increment. Each record method also commits the phase's JFR event, if it got one (see
+ * Events).
+ *
+ * Statements executed and environments allocated are counted by the tree walking engines (INTERPRETER, SPECIALIZING,
+ * PROFILING, and TIERED while a statement is still interpreted). The compiled engines don't count them, since that
+ * would put a counter in the code we compiled to get rid of exactly that kind of overhead.
+ */
+public final class Metrics {
+    private final LongAdder scans = new LongAdder();
+    private final LongAdder scanNanos = new LongAdder();
+    private final LongAdder bytesScanned = new LongAdder();
+    private final LongAdder tokensProduced = new LongAdder();
+    private final LongAdder parses = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder nodesCreated = new LongAdder();
+    private final LongAdder compiles = new LongAdder();
+    private final LongAdder compileNanos = new LongAdder();
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    private final LongAdder statementsExecuted = new LongAdder();
+    private final LongAdder environmentsAllocated = new LongAdder();
+    private final LongAdder runtimeErrors = new LongAdder();
+
+    Metrics() {}
+
+    void scanned(Events.Scan event, long nanos, long bytes, int tokens) {
+        scans.increment();
+        scanNanos.add(nanos);
+        bytesScanned.add(bytes);
+        tokensProduced.add(tokens);
+        if (event != null && event.shouldCommit()) {
+            event.bytes = bytes;
+            event.tokens = tokens;
+            event.commit();
+        }
+    }
+
+    void parsed(Events.Parse event, long nanos, int tokens, int nodes) {
+        parses.increment();
+        parseNanos.add(nanos);
+        nodesCreated.add(nodes);
+        if (event != null && event.shouldCommit()) {
+            event.tokens = tokens;
+            event.nodes = nodes;
+            event.commit();
+        }
+    }
+
+    void compiled(Events.Compile event, long nanos, Engine.Mode mode, int statements) {
+        compiles.increment();
+        compileNanos.add(nanos);
+        if (event != null && event.shouldCommit()) {
+            event.mode = mode.name();
+            event.statements = statements;
+            event.commit();
+        }
+    }
+
+    void ran(Events.Run event, long nanos, Engine.Mode mode, long statements, long environments, boolean runtimeError) {
+        runs.increment();
+        runNanos.add(nanos);
+        statementsExecuted.add(statements);
+        environmentsAllocated.add(environments);
+        if (runtimeError) runtimeErrors.increment();
+        if (event != null && event.shouldCommit()) {
+            event.mode = mode.name();
+            event.statements = statements;
+            event.environments = environments;
+            event.runtimeError = runtimeError;
+            event.commit();
+        }
+    }
+
+    /*
+     * Everything counted so far, by name, e.g. "scan.nanos" or "run.errors". Counters keep moving while other threads
+     * work, so the values are each current when read, not a consistent cut across all of them.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        values.put("scan.count", scans.sum());
+        values.put("scan.nanos", scanNanos.sum());
+        values.put("scan.bytes", bytesScanned.sum());
+        values.put("scan.tokens", tokensProduced.sum());
+        values.put("parse.count", parses.sum());
+        values.put("parse.nanos", parseNanos.sum());
+        values.put("parse.nodes", nodesCreated.sum());
+        values.put("compile.count", compiles.sum());
+        values.put("compile.nanos", compileNanos.sum());
+        values.put("run.count", runs.sum());
+        values.put("run.nanos", runNanos.sum());
+        values.put("run.statements", statementsExecuted.sum());
+        values.put("run.environments", environmentsAllocated.sum());
+        values.put("run.errors", runtimeErrors.sum());
+        return values;
+    }
+}
@@ -0,0 +1,34 @@
+package lox;
+
+/*
+ * Instruction set for the bytecode VM. Each opcode is a single byte, operands follow inline as unsigned 24 bit indexes
+ */
+final class OpCode {
+    private OpCode() {}
+
+    static final byte CONSTANT      = 0;  // [index] pushes constants[index]
+    static final byte NIL           = 1;
+    static final byte TRUE          = 2;
+    static final byte FALSE         = 3;
+    static final byte POP           = 4;
+    static final byte GET_LOCAL     = 5;  // [slot]
+    static final byte SET_LOCAL     = 6;  // [slot] leaves the value on the stack, since assignment is an expression
+    static final byte DEFINE_LOCAL  = 7;  // [slot] pops the value into the slot
+    static final byte GET_GLOBAL    = 8;  // [site index] constants[index] is the GlobalSite
+    static final byte SET_GLOBAL    = 9;  // [site index]
+    static final byte DEFINE_GLOBAL = 10; // [index] constants[index] is the name's index in the global table
+    static final byte EQUAL         = 11;
+    static final byte NOT_EQUAL     = 12;
+    static final byte GREATER       = 13;
+    static final byte GREATER_EQUAL = 14;
+    static final byte LESS          = 15;
+    static final byte LESS_EQUAL    = 16;
+    static final byte ADD           = 17;
+    static final byte SUBTRACT      = 18;
+    static final byte MULTIPLY      = 19;
+    static final byte DIVIDE        = 20;
+    static final byte NOT           = 21;
+    static final byte NEGATE        = 22;
+    static final byte PRINT         = 23;
+    static final byte RETURN        = 24;
+}
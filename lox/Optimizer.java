@@ -0,0 +1,176 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Optional pass between the parser and the resolver that rewrites the AST into a cheaper one:
+ *  - Binary/Unary expressions over literals are folded into a single literal
+ *  - Grouping nodes are dropped, they only ever mattered to the parser
+ *  - a few identities that hold for every double (e * 1, e / 1, e - 0, -(-e)) and boolean (!!e) are simplified away,
+ *    but only when the operand is statically known to be a number/boolean (or throw on its own)
+ * Folding runs the operator through the Interpreter itself, and anything that would throw is left alone so the
+ * same RuntimeError still happens at runtime on the same token.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private final Interpreter folder = new Interpreter(); // evaluates operators at compile time with the exact runtime semantics
+    private int eliminated = 0; // how many nodes the pass got rid of
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            optimized.add(statement.accept(this));
+        }
+        return optimized;
+    }
+
+    int eliminated() {
+        return eliminated;
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.lazy != null) return stmt; // not parsed yet, so there's nothing to fold
+        return new Stmt.Block(optimize(stmt.statements));
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new Stmt.Expression(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        return new Stmt.Var(stmt.name, stmt.initializer == null ? null : optimize(stmt.initializer));
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        return new Expr.Assign(expr.name, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            try {
+                Object value = folder.binary(expr.operator, ((Expr.Literal)left).value, ((Expr.Literal)right).value);
+                eliminated += 2; // both operands fold into the binary node's slot
+                return new Expr.Literal(value);
+            } catch (RuntimeError error) {
+                // leave it for the runtime to report
+            }
+        }
+
+        switch (expr.operator.type) {
+            case STAR:
+                if (isNumber(left) && isLiteral(right, 1.0)) return drop(left);
+                if (isLiteral(left, 1.0) && isNumber(right)) return drop(right);
+                break;
+            case SLASH:
+                if (isNumber(left) && isLiteral(right, 1.0)) return drop(left);
+                break;
+            case MINUS:
+                if (isNumber(left) && isLiteral(right, 0.0)) return drop(left);
+                break;
+        }
+
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        eliminated++;
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal) {
+            try {
+                Object value = folder.unary(expr.operator, ((Expr.Literal)right).value);
+                eliminated++;
+                return new Expr.Literal(value);
+            } catch (RuntimeError error) {
+                // leave it for the runtime to report
+            }
+        }
+
+        if (right instanceof Expr.Unary && ((Expr.Unary)right).operator.type == expr.operator.type) {
+            Expr inner = ((Expr.Unary)right).right;
+            if (expr.operator.type == TokenType.MINUS && isNumber(inner) || expr.operator.type == TokenType.BANG && isBoolean(inner)) {
+                eliminated += 2; // -(-e) and !!e
+                return inner;
+            }
+        }
+
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    private Expr drop(Expr kept) { // a binary node and its literal operand go away, the other operand takes their place
+        eliminated += 2;
+        return kept;
+    }
+
+    private static boolean isLiteral(Expr expr, double value) {
+        return expr instanceof Expr.Literal && Double.valueOf(value).equals(((Expr.Literal)expr).value); // Double.equals so 0 doesn't match -0
+    }
+
+    private static boolean isNumber(Expr expr) { // either evaluates to a double or throws by itself (TypeInference does this with variables)
+        if (expr instanceof Expr.Literal) return ((Expr.Literal)expr).value instanceof Double;
+        if (expr instanceof Expr.Grouping) return isNumber(((Expr.Grouping)expr).expression);
+        if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator.type == TokenType.MINUS;
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            switch (binary.operator.type) {
+                case MINUS:
+                case STAR:
+                case SLASH:
+                    return true;
+                case PLUS: // number + number can't turn into string concatenation
+                    return isNumber(binary.left) && isNumber(binary.right);
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBoolean(Expr expr) { // either evaluates to a boolean or throws by itself
+        if (expr instanceof Expr.Literal) return ((Expr.Literal)expr).value instanceof Boolean;
+        if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator.type == TokenType.BANG;
+        if (expr instanceof Expr.Binary) {
+            switch (((Expr.Binary)expr).operator.type) {
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                case BANG_EQUAL:
+                case EQUAL_EQUAL:
+                    return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,11 @@
+package lox;
+
+/*
+ * Where print statements go. The engines hand every printed value to a sink instead of calling System.out.println
+ * themselves, so output can be buffered, captured or redirected without touching the engines.
+ */
+interface OutputSink {
+    void print(Object value); // one print statement: the stringified value followed by a line break
+
+    void flush(); // pushes out anything buffered, called at the end of a run and before a runtime error is reported
+}
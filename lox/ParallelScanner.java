@@ -0,0 +1,116 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/*
+ * Scans a large source in chunks on a ForkJoinPool and stitches the results back together. The output (tokens, lines
+ * and reported errors, in order) is exactly what a single Scanner.scanTokens() pass produces.
+ *
+ * Chunks are split right after a newline, so the only way a chunk can start in the wrong state is when a multi line
+ * string literal runs across the boundary (a comment always ends at the newline). Each chunk is scanned speculatively
+ * as if it started outside a string; while stitching, if the previous chunk's last token ran past the boundary, the
+ * speculative result is thrown away and that stretch is re-scanned from where the previous chunk really stopped.
+ */
+class ParallelScanner {
+    private static final int MIN_CHUNK = 64 * 1024; // below this splitting costs more than it saves
+
+    private final String source;
+    private final Diagnostics diagnostics;
+    private final ForkJoinPool pool;
+
+    ParallelScanner(String source, Diagnostics diagnostics) {
+        this(source, diagnostics, ForkJoinPool.commonPool());
+    }
+
+    ParallelScanner(String source, Diagnostics diagnostics, ForkJoinPool pool) {
+        this.source = source;
+        this.diagnostics = diagnostics;
+        this.pool = pool;
+    }
+
+    List<Token> scanTokens() {
+        return scanTokenBuffer().toTokens();
+    }
+
+    TokenBuffer scanTokenBuffer() {
+        int[] bounds = split();
+        int chunks = bounds.length - 1;
+        if (chunks == 1) return new Scanner(source, diagnostics).scanTokenBuffer();
+
+        // pass 1: count the newlines in every chunk so each one knows the line it starts on
+        List<ForkJoinTask<Integer>> counts = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int from = bounds[i], to = bounds[i + 1];
+            counts.add(pool.submit(() -> countLines(from, to)));
+        }
+        int[] startLines = new int[chunks];
+        int line = 1;
+        for (int i = 0; i < chunks; i++) {
+            startLines[i] = line;
+            line += counts.get(i).join();
+        }
+
+        // pass 2: scan every chunk speculatively
+        List<ForkJoinTask<Scanner>> scans = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            Scanner scanner = new Scanner(source, bounds[i], bounds[i + 1], startLines[i], diagnostics);
+            scans.add(pool.submit(() -> {
+                scanner.scanRange();
+                return scanner;
+            }));
+        }
+
+        // stitch them together in order, re-scanning wherever a token crossed a boundary
+        TokenBuffer tokens = new TokenBuffer(source);
+        int position = 0;
+        line = 1;
+        for (int i = 0; i < chunks; i++) {
+            Scanner scanner = scans.get(i).join();
+            if (bounds[i] != position) { // the previous chunk ran into this one, so this speculation is no good
+                if (position >= bounds[i + 1]) continue; // it ran right over the whole chunk
+
+                scanner = new Scanner(source, position, bounds[i + 1], line, diagnostics);
+                scanner.scanRange();
+            }
+
+            tokens.addAll(scanner.scanRange()); // already scanned, this just hands back its tokens
+            scanner.reportErrors();
+            position = scanner.position();
+            line = scanner.line();
+        }
+
+        tokens.add(TokenType.EOF, position, 0, line);
+        return tokens;
+    }
+
+    private int[] split() { // chunk boundaries, each one just past a newline
+        int parallelism = pool.getParallelism();
+        int chunkSize = Math.max(MIN_CHUNK, source.length() / (parallelism * 4) + 1);
+
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        int next = chunkSize;
+        while (next < source.length()) {
+            int newline = source.indexOf('\n', next);
+            if (newline < 0) break;
+            bounds.add(newline + 1);
+            next = newline + 1 + chunkSize;
+        }
+        if (bounds.get(bounds.size() - 1) != source.length() || bounds.size() == 1) bounds.add(source.length());
+
+        int[] result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++) result[i] = bounds.get(i);
+        return result;
+    }
+
+    private int countLines(int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            if (source.charAt(i) == '\n') lines++;
+        }
+        return lines;
+    }
+}
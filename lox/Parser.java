@@ -1,6 +1,7 @@
 package lox;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static lox.TokenType.*;
@@ -42,11 +43,24 @@ import static lox.TokenType.*;
 class Parser  { // consumes a flat input sequence of tokens, which are eventually going to be parsed
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
+    private final TokenBuffer tokens; // compact token stream, Tokens are only materialized for what ends up in the AST
+    private final Diagnostics diagnostics; // where syntax errors get reported
+    private final boolean lazy; // block bodies are only checked here, and built when they first run, see LazyBlock
     private int current = 0; // sets the current token to 0
+    private int nodes = 0; // AST nodes created so far, for Metrics
 
-    Parser(List<Token> tokens) { // pass in a token list to parse for the constructor
+    Parser(TokenBuffer tokens) { // errors just get printed
+        this(tokens, new Diagnostics(System.err));
+    }
+
+    Parser(TokenBuffer tokens, Diagnostics diagnostics) { // pass in a token buffer to parse for the constructor
+        this(tokens, diagnostics, false);
+    }
+
+    Parser(TokenBuffer tokens, Diagnostics diagnostics, boolean lazy) {
         this.tokens = tokens;
+        this.diagnostics = diagnostics;
+        this.lazy = lazy;
     }
 
     List<Stmt> parse() { // parses through a list of statements and creates an AST (brain of our interpreter)
@@ -57,6 +71,29 @@ class Parser  { // consumes a flat input sequence of tokens, which are eventuall
         return statements; // return the list of statements
     }
     
+    List<Stmt> parseBody(int start) { // the statements of the block whose body starts at start, for LazyBlock
+        current = start;
+        return block();
+    }
+
+    Stmt parseDeclaration(int start) { // one top level declaration, for IncrementalCompiler, see position() for where it ended
+        current = start;
+        return declaration();
+    }
+
+    int position() {
+        return current;
+    }
+
+    int nodes() {
+        return nodes;
+    }
+
+    private <T> T node(T node) { // every new AST node goes through here so it gets counted
+        nodes++;
+        return node;
+    }
+
     private Expr expression() { // based solely on equality, so just calles that method
         return assignment();
     }
@@ -73,22 +110,32 @@ class Parser  { // consumes a flat input sequence of tokens, which are eventuall
 
     private Stmt statement() { // our bases statments are print, or expression, so this determines how they are eventually evaluated
         if (match(PRINT)) return printStatement();
-        if (match(LEFT_BRACE)) return new Stmt.Block(block());
+        if (match(LEFT_BRACE)) return lazy ? lazyBlock() : node(new Stmt.Block(block()));
 
         return expressionStatement();
     }
 
+    private Stmt lazyBlock() { // checks the body without building it, it gets built the first time the block runs
+        int start = current;
+        skipBlock();
+
+        Stmt.Block block = node(new Stmt.Block(Collections.emptyList()));
+        block.lazy = new LazyBlock(tokens, start, tokens.line(start - 1));
+        return block;
+    }
+
     /*
      * printStatement() & expressionStatement() both return an expression wrapped in the proper statement type, and consumes the proper characters
      */
     private Stmt printStatement() { // prints out the expression to the user
         Expr value = expression();
         consume(SEMICOLON, "Expect ';' after value.");
-        return new Stmt.Print(value);
+        return node(new Stmt.Print(value));
     }
 
     private Stmt varDeclaration() { // creates a variable
-        Token name = consume(IDENTIFIER, "Expect variable name."); // consumes the identifier
+        consume(IDENTIFIER, "Expect variable name."); // consumes the identifier
+        Token name = previous();
 
         Expr initializer = null; // creates an expression on the right side
         if(match(EQUAL)) {
@@ -96,13 +143,13 @@ class Parser  { // consumes a flat input sequence of tokens, which are eventuall
         }
 
         consume(SEMICOLON, "Expect ';' after declaration."); // consumes a semicolon
-        return new Stmt.Var(name, initializer); // initializes a new variable statmenet
+        return node(new Stmt.Var(name, initializer)); // initializes a new variable statmenet
     }
 
     private Stmt expressionStatement() { // deals with the statement if it should be evaluated as an expression
         Expr expr = expression();
         consume(SEMICOLON, "Expect ';' after expression.");
-        return new Stmt.Expression(expr);
+        return node(new Stmt.Expression(expr));
     }
 
     private List<Stmt> block() { // creates a sub array of statements within a block of code to give us variable scope, etc...
@@ -117,116 +164,191 @@ class Parser  { // consumes a flat input sequence of tokens, which are eventuall
     }
 
     private Expr assignment() {
-        Expr expr = equality(); // first calls the equality() method
+        Expr expr = binary(EQUALITY); // first parses everything from equality down
 
         if(match(EQUAL)) {
-            Token equals = previous();
+            int equals = current - 1; // only turned into a Token if we need it for the error
             Expr value = assignment();
 
             if (expr instanceof Expr.Variable) {
                 Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
+                return node(new Expr.Assign(name, value));
             }
 
-            error(equals, "Invalid assignment target.");
+            error(tokens.token(equals), "Invalid assignment target.");
         }
 
         return expr;
 
     }
 
-    private Expr equality() { // defines our equality grammar
-        Expr expr = comparison(); // equality takes two comparisons, so we set our expression to a compariosn
+    /*
+     * equality, comparison, term and factor from the grammar above are all handled by one precedence climbing loop
+     * driven by the PRECEDENCE table, instead of one method (and one call) per level for every single operand.
+     * Every level is left associative, so the right operand is parsed one level tighter than the operator itself.
+     */
+    private static final int EQUALITY = 1, COMPARISON = 2, TERM = 3, FACTOR = 4;
+    private static final int[] PRECEDENCE = new int[TokenType.values().length]; // 0 means "not a binary operator"
+
+    static {
+        PRECEDENCE[BANG_EQUAL.ordinal()] = EQUALITY;
+        PRECEDENCE[EQUAL_EQUAL.ordinal()] = EQUALITY;
+        PRECEDENCE[GREATER.ordinal()] = COMPARISON;
+        PRECEDENCE[GREATER_EQUAL.ordinal()] = COMPARISON;
+        PRECEDENCE[LESS.ordinal()] = COMPARISON;
+        PRECEDENCE[LESS_EQUAL.ordinal()] = COMPARISON;
+        PRECEDENCE[MINUS.ordinal()] = TERM;
+        PRECEDENCE[PLUS.ordinal()] = TERM;
+        PRECEDENCE[SLASH.ordinal()] = FACTOR;
+        PRECEDENCE[STAR.ordinal()] = FACTOR;
+    }
+
+    private Expr binary(int minPrecedence) { // parses a chain of binary operators that bind at least as tightly as minPrecedence
+        Expr expr = unary();
 
-        while(match(BANG_EQUAL, EQUAL_EQUAL)) { // iterates over tokens until we get to an equality operator
-            Token operator = previous(); // sets operator to the pervious token, as the while loop iterates over it once
-            Expr right = comparison(); // gets the right comparison expression
-            expr = new Expr.Binary(expr, operator, right); // creates a new binary expression based on the operator (RECURSIVELY)
-        }
+        for (;;) {
+            int precedence = PRECEDENCE[tokens.type(current).ordinal()];
+            if (precedence < minPrecedence || precedence == 0) return expr;
 
-        return expr; // returns the expression back to expression, which is just returned as the final expression
+            advance();
+            Token operator = previous();
+            Expr right = binary(precedence + 1);
+            expr = node(new Expr.Binary(expr, operator, right)); // builds the same left leaning tree the old ladder did
+        }
     }
 
-    private Expr comparison() { // defines out comparison grammar
-        Expr expr = term(); // creates a new term object, which will be our leftmost part of the expression
-
-        while(match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) { // iterates until it finds the correct operator, and then stores it
+    private Expr unary() { // instead of having two sided expressions, just returns a unary expression, but with a similar mechanism to all of the binary expressions
+        if (match(BANG) || match(MINUS)) { 
             Token operator = previous();
-            Expr right = term(); // figures out the term on the right
-            expr = new Expr.Binary(expr, operator, right); // creates and returns the new binary expression (DOES SO RECURSIVELY FROM ABOVE)
+            Expr right = unary();
+            return node(new Expr.Unary(operator, right));
         }
 
-        return expr;
+        return primary();
     }
 
-    private Expr term() { // same idea as previous language layer, but creates factor based binary expressions recursively
-        Expr expr = factor();
+    private Expr primary() { // checks all of our primary expressions and returns a literal (A LEAF NODE). Also checks for open and closed parenthesis
+        if (match(FALSE)) return node(new Expr.Literal(false));
+        if (match(TRUE)) return node(new Expr.Literal(true));
+        if (match(NIL)) return node(new Expr.Literal(null));
 
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
+        if (match(NUMBER) || match(STRING)) {
+            return node(new Expr.Literal(tokens.literal(current - 1)));
         }
 
-        return expr;
+        if(match(IDENTIFIER)) {
+            return node(new Expr.Variable(previous()));
+        }
+
+        if(match(LEFT_PAREN)) {
+            Expr expr = expression();
+            consume(RIGHT_PAREN, "Expect ')' after expression.");
+            return node(new Expr.Grouping(expr));
+        }
+
+        throw error(peek(), "Exprec expression.");
+    }
+    
+    /*
+     * The grammar from declaration() down once more, but only walking the tokens: no nodes and no Tokens get made.
+     * Syntax errors are reported and recovered from exactly like the methods above do, so a lazy block's body is checked
+     * at compile time and only built (by those methods) once it runs.
+     */
+    private void skipDeclaration() {
+        try {
+            if (match(VAR)) {
+                consume(IDENTIFIER, "Expect variable name.");
+                if (match(EQUAL)) skipAssignment();
+                consume(SEMICOLON, "Expect ';' after declaration.");
+            } else {
+                skipStatement();
+            }
+        } catch (ParseError error) {
+            synchronize();
+        }
     }
 
-    private Expr factor() { // same idea as previous language layer, but creates unary based binary expressions recursively
-        Expr expr = unary();
+    private void skipStatement() {
+        if (match(PRINT)) {
+            skipAssignment();
+            consume(SEMICOLON, "Expect ';' after value.");
+        } else if (match(LEFT_BRACE)) {
+            skipBlock();
+        } else {
+            skipAssignment();
+            consume(SEMICOLON, "Expect ';' after expression.");
+        }
+    }
 
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+    private void skipBlock() { // the body after a '{' up to and including its '}'
+        while (!check(RIGHT_BRACE) && !isAtEnd()) {
+            skipDeclaration();
         }
 
-        return expr;
+        consume(RIGHT_BRACE, "Expect '}' after block.");
     }
 
-    private Expr unary() { // instead of having two sided expressions, just returns a unary expression, but with a similar mechanism to all of the binary expressions
-        if (match(BANG, MINUS)) { 
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
+    private boolean skipAssignment() { // true if it was a lone variable, the only thing assignment() lets you assign to
+        boolean variable = skipBinary(EQUALITY);
+
+        if (match(EQUAL)) {
+            int equals = current - 1;
+            skipAssignment();
+            if (!variable) error(tokens.token(equals), "Invalid assignment target.");
+            return false;
         }
 
-        return primary();
+        return variable;
     }
 
-    private Expr primary() { // checks all of our primary expressions and returns a literal (A LEAF NODE). Also checks for open and closed parenthesis
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
+    private boolean skipBinary(int minPrecedence) {
+        boolean variable = skipUnary();
 
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+        for (;;) {
+            int precedence = PRECEDENCE[tokens.type(current).ordinal()];
+            if (precedence < minPrecedence || precedence == 0) return variable;
+
+            advance();
+            skipBinary(precedence + 1);
+            variable = false;
         }
+    }
 
-        if(match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
+    private boolean skipUnary() {
+        if (match(BANG) || match(MINUS)) {
+            skipUnary();
+            return false;
         }
 
-        if(match(LEFT_PAREN)) {
-            Expr expr = expression();
+        return skipPrimary();
+    }
+
+    private boolean skipPrimary() {
+        if (match(FALSE) || match(TRUE) || match(NIL) || match(NUMBER) || match(STRING)) return false;
+        if (match(IDENTIFIER)) return true;
+
+        if (match(LEFT_PAREN)) {
+            skipAssignment();
             consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
+            return false;
         }
 
         throw error(peek(), "Exprec expression.");
     }
-    
-    private boolean match(TokenType... types) { // this method checks to see if a token matches a particular token type (sees which part of our heirarchy an expression belongs to)
-        for (TokenType type : types) { // iterates over a list of type
-            if (check(type)) { // calls the check method to see if they are equal
-                advance(); // advances to the next item in the list
-                return true;
-            }
+
+    private boolean match(TokenType type) { // consumes the current token if it's the type we're looking for (single type on purpose, varargs allocate an array per call)
+        if (check(type)) {
+            advance();
+            return true;
         }
         return false;
     }
 
-    private Token consume(TokenType type, String message) {
-        if (check(type)) return advance(); // advances looking for the closing parenthesis
+    private void consume(TokenType type, String message) {
+        if (check(type)) { // advances looking for the closing parenthesis
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
 
@@ -234,28 +356,27 @@ class Parser  { // consumes a flat input sequence of tokens, which are eventuall
 
     private boolean check(TokenType type) { // this method checks to see a TokenType is matched
         if (isAtEnd()) return false; 
-        return peek().type == type; // checks to see if the current token matches the type we are checking
+        return tokens.type(current) == type; // checks to see if the current token matches the type we are checking
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd())current++;
-        return previous(); // returns the previous token to match the while loop iterating over our operator
     }
 
     private boolean isAtEnd() {
-        return peek().type == EOF; // checks to see if we are at the end of an expression
+        return tokens.type(current) == EOF; // checks to see if we are at the end of an expression
     }
 
     private Token peek() {
-        return tokens.get(current); // returns the current token
+        return tokens.token(current); // materializes the current token (only needed for errors)
     }
 
     private Token previous() {
-        return tokens.get(current - 1); // returns the token before the current token in the list
+        return tokens.token(current - 1); // materializes the token before the current one, e.g. an operator we just matched
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        diagnostics.error(token, message);
         return new ParseError();
     }
     
@@ -263,9 +384,9 @@ class Parser  { // consumes a flat input sequence of tokens, which are eventuall
         advance();
 
         while(!isAtEnd()) {
-            if (previous().type == SEMICOLON) return;
+            if (tokens.type(current - 1) == SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case CLASS:
                 case FUN:
                 case VAR:
@@ -0,0 +1,144 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * What Engine.Mode.PROFILING records: for every AST node that ran, how often it ran, and how long it took both in total
+ * and by itself (total minus the nodes under it). Every Context gets its own, and it keeps adding up over every run in
+ * that Context until reset().
+ *
+ * Nodes are reported as their type and line, like "Binary:3". Lox here has no functions, so the node a node ran under
+ * is always its parent in the AST, and the chain of parents is the whole stack. That's what writeCollapsed() writes
+ * out, one line per stack with its self time in nanoseconds, the format flamegraph.pl and speedscope read.
+ */
+public final class Profiler {
+    private static final class Site { // one AST node
+        final Object node;
+        final int line;
+        final String label;
+        final Site parent; // the node it ran under, null at the top level
+        long count;
+        long totalNanos;
+        long childNanos; // total time of the nodes that ran under it
+
+        Site(Object node, int line, Site parent) {
+            this.node = node;
+            this.line = line;
+            this.label = node.getClass().getSimpleName() + ":" + line;
+            this.parent = parent;
+        }
+
+        long selfNanos() {
+            return totalNanos - childNanos;
+        }
+    }
+
+    private static final class Row { // one line of the hot spot report
+        final String label;
+        long count;
+        long totalNanos;
+        long selfNanos;
+
+        Row(String label) {
+            this.label = label;
+        }
+    }
+
+    private final Map<Object, Site> sites = new IdentityHashMap<>();
+    private Site[] stack = new Site[64]; // the nodes running right now, innermost last
+    private long[] starts = new long[64];
+    private int depth = 0;
+
+    Profiler() {}
+
+    boolean running(Object node) { // true when the Interpreter re-enters the node it's already in, e.g. through evaluateNumber
+        return depth > 0 && stack[depth - 1].node == node;
+    }
+
+    void enter(Object node) {
+        Site parent = depth == 0 ? null : stack[depth - 1];
+        Site site = sites.get(node);
+        if (site == null) {
+            int line = node instanceof Stmt ? TieredStatements.line((Stmt)node) : TieredStatements.line((Expr)node);
+            if (line == 0 && parent != null) line = parent.line; // literals keep no token, they're on their parent's line
+            site = new Site(node, line, parent);
+            sites.put(node, site);
+        }
+
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+            starts = Arrays.copyOf(starts, depth * 2);
+        }
+        stack[depth] = site;
+        starts[depth++] = System.nanoTime();
+    }
+
+    void exit() { // in a finally, so runtime errors unwinding through a node still count the time it took
+        long elapsed = System.nanoTime() - starts[--depth];
+        Site site = stack[depth];
+        stack[depth] = null;
+        site.count++;
+        site.totalNanos += elapsed;
+        if (depth > 0) stack[depth - 1].childNanos += elapsed;
+    }
+
+    public void reset() {
+        sites.clear();
+    }
+
+    /*
+     * The hot spots: every node type and line that ran, hottest self time first. A line can hold many nodes of the same
+     * type (a + b + c is two Binaries), so counts and self times add up, but total only counts the outermost one, since
+     * the inner ones' time is already in it.
+     */
+    public void writeReport(PrintStream out, int limit) {
+        Map<String, Row> rows = new LinkedHashMap<>();
+        for (Site site : sites.values()) {
+            Row row = rows.computeIfAbsent(site.label, Row::new);
+            row.count += site.count;
+            row.selfNanos += site.selfNanos();
+            if (!nestedInSame(site)) row.totalNanos += site.totalNanos;
+        }
+
+        List<Row> sorted = new ArrayList<>(rows.values());
+        sorted.sort((a, b) -> Long.compare(b.selfNanos, a.selfNanos));
+        out.printf("%12s %12s %12s  %s%n", "count", "self ms", "total ms", "node");
+        for (Row row : sorted.subList(0, Math.min(limit, sorted.size()))) {
+            out.printf("%12d %12.3f %12.3f  %s%n", row.count, row.selfNanos / 1e6, row.totalNanos / 1e6, row.label);
+        }
+    }
+
+    public void writeCollapsed(PrintStream out) {
+        Map<String, Long> stacks = new LinkedHashMap<>(); // two nodes with the same labels all the way up are one stack
+        Map<Site, String> paths = new IdentityHashMap<>();
+        for (Site site : sites.values()) {
+            long self = site.selfNanos();
+            if (self > 0) stacks.merge(path(site, paths), self, Long::sum);
+        }
+        for (Map.Entry<String, Long> stack : stacks.entrySet()) {
+            out.println(stack.getKey() + " " + stack.getValue());
+        }
+    }
+
+    private static String path(Site site, Map<Site, String> paths) { // "Print:3;Binary:3;Variable:3", root first
+        String path = paths.get(site);
+        if (path == null) {
+            path = site.parent == null ? site.label : path(site.parent, paths) + ";" + site.label;
+            paths.put(site, path);
+        }
+        return path;
+    }
+
+    private static boolean nestedInSame(Site site) {
+        for (Site outer = site.parent; outer != null; outer = outer.parent) {
+            if (outer.label.equals(site.label)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,47 @@
+package lox;
+
+/*
+ * Interpreter mode that times every node it runs into a Profiler. It only hooks the three places the Interpreter goes
+ * through to run a node (execute, evaluate and evaluateNumber), so the plain Interpreter pays nothing for it and every
+ * visit method behaves exactly as it does there.
+ */
+class ProfilingInterpreter extends Interpreter {
+    private final Profiler profiler;
+
+    ProfilingInterpreter(GlobalNames names, OutputSink out, Diagnostics diagnostics, Profiler profiler) {
+        super(names, out, diagnostics);
+        this.profiler = profiler;
+    }
+
+    @Override
+    void execute(Stmt stmt) {
+        profiler.enter(stmt);
+        try {
+            super.execute(stmt);
+        } finally {
+            profiler.exit();
+        }
+    }
+
+    @Override
+    Object evaluate(Expr expr) {
+        if (profiler.running(expr)) return super.evaluate(expr);
+        profiler.enter(expr);
+        try {
+            return super.evaluate(expr);
+        } finally {
+            profiler.exit();
+        }
+    }
+
+    @Override
+    double evaluateNumber(Expr expr) {
+        if (profiler.running(expr)) return super.evaluateNumber(expr); // visitBinaryExpr handing its own node to the numeric path
+        profiler.enter(expr);
+        try {
+            return super.evaluateNumber(expr);
+        } finally {
+            profiler.exit();
+        }
+    }
+}
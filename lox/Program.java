@@ -0,0 +1,110 @@
+package lox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * A compiled script, tied to the Engine that compiled it. One Program can be run by many Contexts of that Engine on many
+ * threads at once. What compile() fills in on the AST (the Resolver's depths and slots, TypeInference's number and
+ * unboxed flags, Block sizes) is only written before the Program is handed out, and only read after that. Three things
+ * do change while it runs, all made for sharing:
+ *  - the specialization cached on Binary/Unary nodes in SPECIALIZING mode, fine to race on: every value is correct,
+ *    since each one is guarded before it's trusted
+ *  - lazy block bodies (Engine's lazy option), built and resolved by whichever run reaches them first, under a lock,
+ *    and only published once they're complete, see LazyBlock
+ *  - TIERED programs' execution counts and compiled statements, which are atomics
+ * runBatch() leans on exactly that to run one Program over many inputs at once.
+ */
+public final class Program {
+    final Engine engine;
+    final List<Stmt> statements; // resolved (and maybe optimized) AST, null if there were compile errors
+    final Chunk chunk; // only for Engine.Mode.VM
+    final Script script; // for Engine.Mode.CLOSURES, and for JVM if the script fit in a class file
+    final TieredStatements tiered; // only for Engine.Mode.TIERED
+    private final List<String> errors;
+    private final int eliminated;
+
+    Program(Engine engine, List<Stmt> statements, Chunk chunk, Script script, TieredStatements tiered,
+            List<String> errors, int eliminated) {
+        this.engine = engine;
+        this.statements = statements == null ? null : Collections.unmodifiableList(statements);
+        this.chunk = chunk;
+        this.script = script;
+        this.tiered = tiered;
+        this.errors = List.copyOf(errors);
+        this.eliminated = eliminated;
+        if (chunk != null) chunk.constants(); // builds the constant array now, so running threads only ever read it
+    }
+
+    public boolean hadErrors() {
+        return statements == null;
+    }
+
+    public List<String> errors() { // compile errors, formatted like the command line prints them
+        return errors;
+    }
+
+    public int eliminatedNodes() { // how many nodes the optimizer removed, 0 if it didn't run
+        return eliminated;
+    }
+
+    public void run(Context context) {
+        context.run(this);
+    }
+
+    public List<Context> runBatch(List<? extends Map<String, ?>> inputs) {
+        return runBatch(inputs, ForkJoinPool.commonPool());
+    }
+
+    /*
+     * Runs this Program once per input record, all on the one parse, spread over the pool's threads. Every record gets
+     * a capturing Context of its own with the record's entries defined as globals, so runs can't see each other, and
+     * the Contexts come back in input order: context i has the output and errors of inputs.get(i).
+     */
+    public List<Context> runBatch(List<? extends Map<String, ?>> inputs, ForkJoinPool pool) {
+        if (hadErrors()) throw new IllegalStateException("Can't run a program that failed to compile.");
+
+        Context[] contexts = new Context[inputs.size()];
+        int chunk = Math.max(1, inputs.size() / (pool.getParallelism() * 4)); // a few chunks per thread, for stealing
+        pool.invoke(new Batch(inputs, contexts, 0, contexts.length, chunk));
+        return Arrays.asList(contexts);
+    }
+
+    private final class Batch extends RecursiveAction { // one range of the records, split in half until it's small
+        private static final long serialVersionUID = 1L; // never serialized, ForkJoinTask just happens to be Serializable
+
+        private final List<? extends Map<String, ?>> inputs;
+        private final Context[] contexts;
+        private final int from;
+        private final int to;
+        private final int chunk;
+
+        Batch(List<? extends Map<String, ?>> inputs, Context[] contexts, int from, int to, int chunk) {
+            this.inputs = inputs;
+            this.contexts = contexts;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > chunk) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Batch(inputs, contexts, from, middle, chunk), new Batch(inputs, contexts, middle, to, chunk));
+                return;
+            }
+
+            for (int i = from; i < to; i++) {
+                Context context = engine.capturingContext();
+                for (Map.Entry<String, ?> global : inputs.get(i).entrySet()) context.define(global.getKey(), global.getValue());
+                context.run(Program.this);
+                contexts[i] = context;
+            }
+        }
+    }
+}
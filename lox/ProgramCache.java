@@ -0,0 +1,143 @@
+package lox;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Remembers compiled Programs by the SHA-256 of their source and the Engine that compiled them, so a script we've seen
+ * before skips the scanner, parser, optimizer and resolver entirely. A Program can be shared between threads (see
+ * Program), so the same one is handed to every caller. Several Engines may share one cache, but each only ever gets
+ * its own Programs back: what a Program holds depends on its Engine's settings, and it only runs on that Engine.
+ * Bounded both by entry count and by an estimate of how much memory the cached ASTs hold, evicting the least recently
+ * used entry when either limit is hit.
+ */
+public final class ProgramCache {
+    private static final long BYTES_PER_TOKEN = 96; // rough cost of the Token plus its share of the AST (and bytecode)
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // access order, eldest is LRU
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    private static final class Key {
+        final Engine engine; // by identity, like Context.run checks it
+        final String hash;
+
+        Key(Engine engine, String hash) {
+            this.engine = engine;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key)other).engine == engine && ((Key)other).hash.equals(hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(engine) + hash.hashCode();
+        }
+    }
+
+    private static final class Entry {
+        final Program program;
+        final long bytes;
+
+        Entry(Program program, long bytes) {
+            this.program = program;
+            this.bytes = bytes;
+        }
+    }
+
+    public ProgramCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) throw new IllegalArgumentException("Cache limits must be positive.");
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    static String key(String source) { // hashing is one cheap pass over the source, compared to scanning and parsing it
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has to ship SHA-256
+        }
+    }
+
+    static long estimateBytes(TokenBuffer tokens) {
+        return tokens.size() * BYTES_PER_TOKEN;
+    }
+
+    synchronized Program lookup(Engine engine, String hash) {
+        Entry entry = entries.get(new Key(engine, hash)); // also moves it to the most recently used end
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.program;
+    }
+
+    /*
+     * Compiling happens outside the lock, so two threads missing on the same source both compile it; whoever stores
+     * second just replaces an identical Program
+     */
+    synchronized void store(String hash, Program program, long size) { // under the Engine that compiled it
+        if (size > maxBytes) return; // would evict everything else and still not fit
+
+        Entry previous = entries.put(new Key(program.engine, hash), new Entry(program, size));
+        if (previous != null) bytes -= previous.bytes;
+        bytes += size;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long estimatedBytes() {
+        return bytes;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized Map<String, Long> stats() { // all the counters at one instant, handy for logging
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("entries", (long)entries.size());
+        stats.put("estimatedBytes", bytes);
+        return stats;
+    }
+}
@@ -0,0 +1,181 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Static pass that runs between the parser and the interpreter. Every variable reference inside a block gets bound to
+ * a (depth, slot) pair, so the interpreter can index straight into the right environment instead of searching by name.
+ * Anything that isn't found in a block scope is left unresolved (depth -1) and treated as a global at runtime, through
+ * a GlobalSite that indexes the global table with the name's index from the Engine's GlobalNames.
+ *
+ * Only blocks that declare variables are scopes. A block without any gets slots = 0, and every backend runs it in
+ * whatever scope encloses it rather than making an empty one, so depths here skip over it too.
+ */
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final List<Map<String, Integer>> scopes = new ArrayList<>(); // each block scope maps a name to its slot
+    private final List<Integer> visible = new ArrayList<>(); // how many of each scope's slots we can see, see LazyBlock
+    private final GlobalNames globals; // where global names get their index
+
+    Resolver(GlobalNames globals) {
+        this.globals = globals;
+    }
+
+    /*
+     * For the body of a LazyBlock, resolved long after the rest: starts out inside the scopes that were around the
+     * block, seeing only the names that were declared before it. Slots are handed out in declaration order, so that's
+     * just the slots below each scope's size back then.
+     */
+    Resolver(GlobalNames globals, List<Map<String, Integer>> enclosing, int[] sizes) {
+        this.globals = globals;
+        scopes.addAll(enclosing);
+        for (int size : sizes) visible.add(size);
+    }
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.lazy != null) { // not parsed yet, remember what it can see so its body can be resolved once it is
+            int[] sizes = new int[scopes.size()];
+            for (int i = 0; i < sizes.length; i++) sizes[i] = Math.min(scopes.get(i).size(), visible.get(i));
+            stmt.lazy.enclosing(globals, new ArrayList<>(scopes), sizes);
+            return null;
+        }
+
+        resolveBlock(stmt, stmt.statements);
+        return null;
+    }
+
+    void resolveBlock(Stmt.Block stmt, List<Stmt> statements) {
+        if (!declaresVariables(statements)) { // nothing to put in a scope, so it doesn't get one and doesn't count towards depth
+            resolve(statements);
+            stmt.slots = 0;
+            return;
+        }
+
+        scopes.add(new HashMap<>()); // begin a new scope
+        visible.add(Integer.MAX_VALUE);
+        resolve(statements);
+        visible.remove(visible.size() - 1);
+        stmt.slots = scopes.remove(scopes.size() - 1).size(); // the block needs exactly one slot per distinct name declared in it
+    }
+
+    private static boolean declaresVariables(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer); // resolved before the name is declared, so "var a = a;" still reads the outer a
+        }
+
+        if (scopes.isEmpty()) { // a global, defined at runtime
+            stmt.global = site(stmt.name);
+            return null;
+        }
+
+        Map<String, Integer> scope = scopes.get(scopes.size() - 1);
+        Integer slot = scope.get(stmt.name.lexeme);
+        if (slot == null) { // redeclaring a name in the same block just reuses its slot
+            slot = scope.size();
+            scope.put(stmt.name.lexeme, slot);
+        }
+        stmt.slot = slot;
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+
+        int scope = find(expr.name.lexeme);
+        if (scope >= 0) {
+            expr.depth = scopes.size() - 1 - scope;
+            expr.slot = scopes.get(scope).get(expr.name.lexeme);
+            return null;
+        }
+        expr.depth = -1;
+        expr.global = site(expr.name); // found by its index at runtime
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        int scope = find(expr.name.lexeme);
+        if (scope >= 0) {
+            expr.depth = scopes.size() - 1 - scope;
+            expr.slot = scopes.get(scope).get(expr.name.lexeme);
+            return null;
+        }
+        expr.depth = -1;
+        expr.global = site(expr.name); // found by its index at runtime
+        return null;
+    }
+
+    private GlobalSite site(Token name) {
+        return new GlobalSite(name, globals.index(name.symbol));
+    }
+
+    private int find(String name) { // walks outwards from the innermost scope, -1 means it's a global
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Integer slot = scopes.get(i).get(name);
+            if (slot != null && slot < visible.get(i)) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+}
@@ -1,6 +1,7 @@
 package lox;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,12 +11,15 @@ import static lox.TokenType.*;
 // storing the raw code as a string
 class Scanner {
     private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final TokenBuffer tokens;
+    private final int end; // we stop at the first token that starts at or past this offset (it still gets finished)
+    private final Diagnostics diagnostics; // where scan errors get reported
+    private final List<Runnable> deferredErrors; // only set for speculative chunk scans, see ParallelScanner
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
-    private static final Map<String, TokenType> keywords;
+    static final Map<String, TokenType> keywords;
 
     static {
         keywords = new HashMap<>();
@@ -35,23 +39,87 @@ class Scanner {
         keywords.put("true", TRUE);
         keywords.put("var", VAR);
         keywords.put("while", WHILE);
+
+        TokenType[] types = new TokenType[0];
+        for (Map.Entry<String, TokenType> keyword : keywords.entrySet()) {
+            int symbol = Symbols.intern(keyword.getKey());
+            if (symbol >= types.length) types = Arrays.copyOf(types, symbol + 1);
+            types[symbol] = keyword.getValue();
+        }
+        keywordTypes = types;
+    }
+
+    private static final TokenType[] keywordTypes; // indexed by symbol ID, so the scanners can tell keywords apart without a String
+
+    static TokenType keyword(int symbol) { // null if the name isn't a keyword
+        return symbol < keywordTypes.length ? keywordTypes[symbol] : null;
+    }
+
+    Scanner(String source) { // errors just get printed
+        this(source, new Diagnostics(System.err));
     }
 
-    Scanner(String source) { 
+    Scanner(String source, Diagnostics diagnostics) { 
         this.source = source;
+        this.tokens = new TokenBuffer(source);
+        this.end = source.length();
+        this.diagnostics = diagnostics;
+        this.deferredErrors = null;
+    }
+
+    Scanner(String source, int from, int to, int line, Diagnostics diagnostics) { // scans just part of the source, holding on to errors until reportErrors()
+        this.source = source;
+        this.tokens = new TokenBuffer(source);
+        this.end = to;
+        this.diagnostics = diagnostics;
+        this.deferredErrors = new ArrayList<>();
+        this.current = from;
+        this.line = line;
+    }
+
+    List<Token> scanTokens() { // the full Token list, mostly useful for debugging and tooling
+        return scanTokenBuffer().toTokens();
+    }
+
+    TokenBuffer scanTokenBuffer() {
+        scanRange();
+    
+        // records the type, position and line of each token, lexemes are only cut out of the source later if needed
+        tokens.add(EOF, current, 0, line);
+        return tokens;
     }
 
-    List<Token> scanTokens() {
-        // scans tokens while not at the end of the program
-        while(!isAtEnd()) {
+    TokenBuffer scanRange() {
+        // scans tokens while not at the end of the program (or the end of our chunk of it)
+        while(current < end) {
             start = current;
             scanToken();
         }
-    
-        // creates individual lexemes and stores them in a list
-        tokens.add(new Token(EOF, "", null, line));
         return tokens;
     }
+
+    int position() { // where scanning actually stopped, can be past the end of the range if a token ran over it
+        return current;
+    }
+
+    int line() {
+        return line;
+    }
+
+    void reportErrors() {
+        for (Runnable error : deferredErrors) {
+            error.run();
+        }
+    }
+
+    private void error(String message) {
+        if (deferredErrors == null) {
+            diagnostics.error(line, message);
+        } else {
+            int line = this.line;
+            deferredErrors.add(() -> diagnostics.error(line, message));
+        }
+    }
     
     private void scanToken() {
         char c = advance();
@@ -107,7 +175,7 @@ class Scanner {
                     identifier();
                 }
                 else {
-                    Lox.error(line, "Unexpected character."); // sets has error, so we never try to execute the code, but do print all errors
+                    error("Unexpected character."); // sets has error, so we never try to execute the code, but do print all errors
                 }
                 break;
         }
@@ -117,10 +185,13 @@ class Scanner {
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text); // seeing if the substring is a keyword
-        if (type == null) type = IDENTIFIER;
-        addToken(type);
+        int symbol = Symbols.intern(source, start, current); // straight from the source, no substring
+        TokenType type = keyword(symbol); // seeing if it's a keyword
+        if (type == null) {
+            tokens.add(IDENTIFIER, start, current - start, line, symbol);
+        } else {
+            addToken(type);
+        }
     }
 
     // consumes the rest of the number into one lexeme
@@ -134,7 +205,7 @@ class Scanner {
             while (isDigit(peek())) advance(); // proceeds as if its an integer
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current))); // adds the completed int/floating point number as 1 completer token
+        addToken(NUMBER); // adds the completed int/floating point number as 1 completer token, the value is parsed lazily
     }
 
     private void string() {
@@ -144,14 +215,13 @@ class Scanner {
         }
 
         if (isAtEnd()) { // if the string isn't closed before the next line
-            Lox.error(line, "Unterminated string.");
+            error("Unterminated string.");
             return;
         }
 
         advance();
 
-        String value = source.substring(start+1, current-1); // removes the " & " around the string and just saves the actual values
-        addToken(STRING, value); // creates a string token of the entire string and adds it to the token list
+        addToken(STRING); // creates a string token of the entire string (quotes included) and adds it to the token list
     }
 
     // "consume" the next character if it matches what we're looking for in terms of the double character tokens
@@ -176,17 +246,17 @@ class Scanner {
     }
 
     // checks to see if a character is an alphabetic
-    private boolean isAlpha(char c) {
-        return (c <= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c == '_');
+    static boolean isAlpha(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c == '_');
     }
 
     // checks to see if a character is an alpha numeric
-    private boolean isAlphaNumeric(char c) {
+    static boolean isAlphaNumeric(char c) {
         return isAlpha(c) || isDigit(c);
     }
 
     // checks to see if a character is a digit
-    private boolean isDigit(char c) {
+    static boolean isDigit(char c) {
         return c >= '0' && c <= '9';
     }
 
@@ -201,13 +271,8 @@ class Scanner {
         return source.charAt(current - 1);
     }
     
-    private void addToken(TokenType type) { // adds a token to the list of lexemes
-        addToken(type, null);
-    }
-    
-    private void addToken(TokenType type, Object literal) { // adds a token to the list of lexemes
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    private void addToken(TokenType type) { // adds a token to the buffer, no substring or Token object needed
+        tokens.add(type, start, current - start, line);
     }
 
 }
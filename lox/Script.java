@@ -0,0 +1,9 @@
+package lox;
+
+/*
+ * A Program compiled ahead of time into something that runs without walking the AST (see CompiledScript and
+ * ClosureScript). It holds no state of its own; the globals and the output of the running Context come in on every run.
+ */
+interface Script {
+    void run(Environment globals, OutputSink out);
+}
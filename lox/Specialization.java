@@ -0,0 +1,46 @@
+package lox;
+
+/*
+ * The states a Binary or Unary node can be rewritten into by the SpecializingInterpreter. A node starts UNINITIALIZED,
+ * picks a type specialized state from the operands it sees the first time it runs, and drops to GENERIC for good the
+ * first time one of those type guards fails.
+ */
+enum Specialization {
+    UNINITIALIZED,
+    GENERIC,
+
+    // number, number
+    NUMBER_ADD, NUMBER_SUBTRACT, NUMBER_MULTIPLY, NUMBER_DIVIDE,
+    NUMBER_GREATER, NUMBER_GREATER_EQUAL, NUMBER_LESS, NUMBER_LESS_EQUAL,
+
+    // string, string
+    STRING_CONCAT,
+
+    // single operand
+    NUMBER_NEGATE, BOOLEAN_NOT;
+
+    static Specialization forBinary(TokenType operator, Object left, Object right) { // picks the state that matches the operands we just saw
+        if (left instanceof Double && right instanceof Double) {
+            switch (operator) {
+                case PLUS: return NUMBER_ADD;
+                case MINUS: return NUMBER_SUBTRACT;
+                case STAR: return NUMBER_MULTIPLY;
+                case SLASH: return NUMBER_DIVIDE;
+                case GREATER: return NUMBER_GREATER;
+                case GREATER_EQUAL: return NUMBER_GREATER_EQUAL;
+                case LESS: return NUMBER_LESS;
+                case LESS_EQUAL: return NUMBER_LESS_EQUAL;
+            }
+        }
+        if (operator == TokenType.PLUS && left instanceof String && right instanceof String) {
+            return STRING_CONCAT;
+        }
+        return GENERIC; // equality, mixed types and anything that's about to throw stay generic
+    }
+
+    static Specialization forUnary(TokenType operator, Object right) {
+        if (operator == TokenType.MINUS && right instanceof Double) return NUMBER_NEGATE;
+        if (operator == TokenType.BANG && right instanceof Boolean) return BOOLEAN_NOT;
+        return GENERIC;
+    }
+}
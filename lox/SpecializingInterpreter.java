@@ -0,0 +1,85 @@
+package lox;
+
+/*
+ * Interpreter mode where Binary and Unary nodes specialize themselves on the types they actually see. After the first
+ * evaluation a node remembers e.g. NUMBER_ADD, and from then on it only does the instanceof guard and the arithmetic,
+ * no operator switch and no string checks. If a guard ever fails the node deoptimizes back to the generic path.
+ */
+class SpecializingInterpreter extends Interpreter {
+
+    SpecializingInterpreter() {
+        super();
+    }
+
+    SpecializingInterpreter(GlobalNames names, OutputSink out, Diagnostics diagnostics) {
+        super(names, out, diagnostics);
+    }
+
+    @Override
+    public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.number) return evaluateNumber(expr); // statically known to be numbers, nothing left to specialize on
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+
+        switch (expr.specialization) {
+            case NUMBER_ADD:
+                if (left instanceof Double && right instanceof Double) return (double)left + (double)right;
+                break;
+            case NUMBER_SUBTRACT:
+                if (left instanceof Double && right instanceof Double) return (double)left - (double)right;
+                break;
+            case NUMBER_MULTIPLY:
+                if (left instanceof Double && right instanceof Double) return (double)left * (double)right;
+                break;
+            case NUMBER_DIVIDE:
+                if (left instanceof Double && right instanceof Double) return (double)left / (double)right;
+                break;
+            case NUMBER_GREATER:
+                if (left instanceof Double && right instanceof Double) return (double)left > (double)right;
+                break;
+            case NUMBER_GREATER_EQUAL:
+                if (left instanceof Double && right instanceof Double) return (double)left >= (double)right;
+                break;
+            case NUMBER_LESS:
+                if (left instanceof Double && right instanceof Double) return (double)left < (double)right;
+                break;
+            case NUMBER_LESS_EQUAL:
+                if (left instanceof Double && right instanceof Double) return (double)left <= (double)right;
+                break;
+            case STRING_CONCAT:
+                if (left instanceof String && right instanceof String) return (String)left + (String)right;
+                break;
+            case UNINITIALIZED: // first run, rewrite the node based on what we got, then do the work generically this once
+                expr.specialization = Specialization.forBinary(expr.operator.type, left, right);
+                return binary(expr.operator, left, right);
+            default:
+                return binary(expr.operator, left, right);
+        }
+
+        expr.specialization = Specialization.GENERIC; // guard failed, deoptimize
+        return binary(expr.operator, left, right);
+    }
+
+    @Override
+    public Object visitUnaryExpr(Expr.Unary expr) {
+        if (expr.number) return evaluateNumber(expr);
+        Object right = evaluate(expr.right);
+
+        switch (expr.specialization) {
+            case NUMBER_NEGATE:
+                if (right instanceof Double) return -(double)right;
+                break;
+            case BOOLEAN_NOT:
+                if (right instanceof Boolean) return !(boolean)right;
+                break;
+            case UNINITIALIZED:
+                expr.specialization = Specialization.forUnary(expr.operator.type, right);
+                return unary(expr.operator, right);
+            default:
+                return unary(expr.operator, right);
+        }
+
+        expr.specialization = Specialization.GENERIC; // guard failed, deoptimize
+        return unary(expr.operator, right);
+    }
+}
@@ -20,6 +20,10 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+
+    int slots;
+    boolean unboxed;
+    LazyBlock lazy;
   }
   static class Expression  extends Stmt {
     Expression(Expr expression) {
@@ -58,6 +62,10 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+
+    int slot = -1;
+    GlobalSite global;
+    boolean unboxed;
   }
 
  abstract <R> R accept(Visitor<R> visitor);
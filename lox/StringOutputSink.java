@@ -0,0 +1,26 @@
+package lox;
+
+/*
+ * Sink that keeps everything printed in memory, for embedders that want a script's output as a String
+ */
+class StringOutputSink implements OutputSink {
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    @Override
+    public void print(Object value) {
+        Interpreter.stringify(value, buffer);
+        buffer.append(NEWLINE);
+    }
+
+    @Override
+    public void flush() {
+        // nothing to do, it's all in memory already
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/*
+ * The process wide symbol table: every distinct identifier gets a small dense ID the first time the scanner sees it,
+ * and keeps it for good. Tokens carry their ID, so keywords and global names are found without hashing a String, and
+ * every Token with the same name shares the one String kept here. The global table itself isn't indexed by it, that
+ * would size every Context by every name the process ever saw; each Engine hands out its own indexes (GlobalNames).
+ *
+ * The scanners look names up straight from the source's chars (or bytes), so an identifier seen before never becomes
+ * a String of its own. The table is open addressing with String.hashCode()'s hash, lock free for lookups; only adding
+ * a new name takes the lock.
+ *
+ * IDs are the same for every Engine, Program and Context in the process. Names are never forgotten, so a host that
+ * feeds in an endless stream of new identifiers grows this table without bound, the same trade String.intern makes.
+ */
+final class Symbols {
+    private static volatile AtomicIntegerArray slots = new AtomicIntegerArray(1024); // ID + 1 per slot, 0 if it's empty
+    private static volatile String[] names = new String[256];
+    private static volatile int count = 0; // only written while holding the lock
+
+    private Symbols() {}
+
+    static int intern(String name) {
+        int id = find(name, 0, name.length(), name.hashCode());
+        return id >= 0 ? id : add(name, name.hashCode());
+    }
+
+    static int intern(CharSequence source, int start, int end) { // the name in source[start, end), without cutting it out first
+        int hash = 0;
+        for (int i = start; i < end; i++) hash = 31 * hash + source.charAt(i);
+        int id = find(source, start, end, hash);
+        return id >= 0 ? id : add(source.subSequence(start, end).toString(), hash);
+    }
+
+    static int intern(ByteBuffer source, int start, int end) { // the same for an ASCII name in source's bytes
+        int hash = 0;
+        for (int i = start; i < end; i++) hash = 31 * hash + (source.get(i) & 0xff);
+        AtomicIntegerArray slots = Symbols.slots;
+        int mask = slots.length() - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int id = slots.get(slot) - 1;
+            if (id < 0) break;
+            if (equals(names[id], source, start, end)) return id;
+        }
+
+        byte[] raw = new byte[end - start];
+        source.get(start, raw);
+        return add(new String(raw, StandardCharsets.ISO_8859_1), hash);
+    }
+
+    static String name(int id) { // only for IDs intern handed out, they're published after their name is
+        return names[id];
+    }
+
+    static int count() {
+        return count;
+    }
+
+    private static int find(CharSequence source, int start, int end, int hash) { // -1 if it isn't in the table (yet)
+        AtomicIntegerArray slots = Symbols.slots;
+        int mask = slots.length() - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int id = slots.get(slot) - 1;
+            if (id < 0) return -1;
+            if (equals(names[id], source, start, end)) return id;
+        }
+    }
+
+    private static synchronized int add(String name, int hash) {
+        int id = find(name, 0, name.length(), hash);
+        if (id >= 0) return id; // another thread added it while we waited
+
+        id = count;
+        if (id == names.length) names = Arrays.copyOf(names, id * 2);
+        names[id] = name; // before the slot, so whoever finds the slot finds the name
+        if (2 * (id + 1) > slots.length()) slots = rehash(slots.length() * 2);
+        insert(slots, id, hash);
+        count = id + 1;
+        return id;
+    }
+
+    private static AtomicIntegerArray rehash(int capacity) { // lookups still on the old table just miss and take the lock
+        AtomicIntegerArray bigger = new AtomicIntegerArray(capacity);
+        for (int id = 0; id < count; id++) insert(bigger, id, names[id].hashCode());
+        return bigger;
+    }
+
+    private static void insert(AtomicIntegerArray slots, int id, int hash) {
+        int mask = slots.length() - 1;
+        int slot = spread(hash) & mask;
+        while (slots.get(slot) != 0) slot = (slot + 1) & mask;
+        slots.set(slot, id + 1);
+    }
+
+    private static int spread(int hash) { // mixes the high bits in, the table only looks at the low ones
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(String name, CharSequence source, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean equals(String name, ByteBuffer source, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != (source.get(start + i) & 0xff)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,193 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * The tier state of one Program in Engine.Mode.TIERED: how often each unit has run, and the compiled version of the
+ * ones that got hot. Counts and compiled code live on the Program, not the Context, so every Context running the
+ * Program helps it warm up, and they all get the compiled code once it's there.
+ *
+ * The units are the top level statements, numbered 0 on up, and after them the nested blocks that can run compiled on
+ * their own. Compiled code keeps a block's locals in JVM locals, so it can't read the Environments of the blocks around
+ * it: only a block that touches nothing but globals and its own locals qualifies. The others move up together with the
+ * unit around them. A nested block runs exactly as often as the unit around it, so it only starts counting once that
+ * unit failed to compile (too big for a class file, or nested too deep for the compiler); until then compiling the
+ * outer unit covers it.
+ */
+final class TieredStatements {
+    private final Tiering tiering;
+    private final List<Stmt> statements;
+    private final List<Stmt> units = new ArrayList<>(); // the top level statements, then the nested blocks counted on their own
+    private final Map<Stmt.Block, Integer> blocks = new IdentityHashMap<>(); // nested block -> its unit
+    private final int[] parents; // the unit around each nested block's unit, -1 for the top level ones
+    private final AtomicIntegerArray executions;
+    private final AtomicIntegerArray failed; // 1 once a unit didn't compile, which is when the blocks inside it start counting
+    private final AtomicReferenceArray<CompiledScript> compiled; // null until the compiler thread fills it in
+    private final ConcurrentLinkedQueue<Integer> pending = new ConcurrentLinkedQueue<>(); // promoted, not yet compiled
+
+    TieredStatements(Tiering tiering, List<Stmt> statements) {
+        this.tiering = tiering;
+        this.statements = statements;
+        units.addAll(statements);
+
+        Set<Stmt.Block> contained = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Stmt statement : statements) reach(statement, contained);
+        List<Integer> parents = new ArrayList<>();
+        for (int i = 0; i < statements.size(); i++) parents.add(-1);
+        for (int i = 0; i < statements.size(); i++) index(statements.get(i), i, contained, parents, true);
+
+        this.parents = new int[parents.size()];
+        for (int i = 0; i < this.parents.length; i++) this.parents[i] = parents.get(i);
+        this.executions = new AtomicIntegerArray(units.size());
+        this.failed = new AtomicIntegerArray(units.size());
+        this.compiled = new AtomicReferenceArray<>(units.size());
+    }
+
+    List<Stmt> statements() {
+        return statements;
+    }
+
+    int unit(Stmt.Block block) { // the unit a nested block is, -1 if it only ever runs as part of the one around it
+        Integer unit = blocks.get(block);
+        return unit == null ? -1 : unit;
+    }
+
+    CompiledScript compiled(int unit) {
+        return compiled.get(unit);
+    }
+
+    void executed(int unit) { // called by the Interpreter before it runs a unit that isn't compiled yet
+        if (executions.get(unit) >= tiering.threshold()) return; // already promoted, just waiting on the compiler
+        if (parents[unit] >= 0 && failed.get(parents[unit]) == 0) return; // the unit around it may still get compiled
+
+        int count = executions.incrementAndGet(unit);
+        if (count == tiering.threshold()) { // exactly one thread sees this, so each unit is promoted once
+            pending.add(unit);
+            tiering.promoted(this, unit, line(units.get(unit)), count);
+        }
+    }
+
+    /*
+     * Runs on the compiler thread. Everything promoted since the last time is compiled together, so a program whose
+     * statements all get hot on the same run costs a few hidden classes rather than one per statement.
+     */
+    void compilePending() {
+        List<Integer> batch = new ArrayList<>();
+        for (Integer unit = pending.poll(); unit != null; unit = pending.poll()) batch.add(unit);
+        if (batch.isEmpty()) return; // an earlier call already took them
+
+        long start = System.nanoTime();
+        CompiledScript[] scripts = compile(select(batch));
+        if (scripts != null) {
+            long nanos = (System.nanoTime() - start) / batch.size();
+            for (int i = 0; i < batch.size(); i++) install(batch.get(i), scripts[i], nanos);
+            return;
+        }
+
+        for (int unit : batch) { // something didn't fit, so find out which one and keep the rest
+            start = System.nanoTime();
+            scripts = compile(select(List.of(unit)));
+            if (scripts != null) {
+                install(unit, scripts[0], System.nanoTime() - start);
+            } else {
+                failed.set(unit, 1); // from now on the blocks inside it count for themselves
+                tiering.failed(unit, line(units.get(unit)));
+            }
+        }
+    }
+
+    private static CompiledScript[] compile(List<Stmt> batch) {
+        try {
+            return new JvmCompiler().compileEach(batch);
+        } catch (StackOverflowError e) { // nesting too deep for the compiler thread's stack, the Interpreter copes with it
+            return null;
+        }
+    }
+
+    private List<Stmt> select(List<Integer> batch) { // a nested block compiles just like a top level one
+        List<Stmt> selected = new ArrayList<>(batch.size());
+        for (int unit : batch) selected.add(units.get(unit));
+        return selected;
+    }
+
+    private void install(int unit, CompiledScript script, long nanos) {
+        compiled.set(unit, script); // from here on every run takes the compiled version
+        tiering.compiled(unit, line(units.get(unit)), nanos);
+    }
+
+    /*
+     * How many block scopes around the statement its variables reach out to: 0 if it only touches globals and locals
+     * declared inside it. Collects every block that reaches 0, the ones that could run compiled on their own.
+     */
+    private static int reach(Stmt statement, Set<Stmt.Block> contained) {
+        if (statement instanceof Stmt.Var) {
+            Expr initializer = ((Stmt.Var)statement).initializer;
+            return initializer == null ? 0 : reach(initializer);
+        }
+        if (statement instanceof Stmt.Expression) return reach(((Stmt.Expression)statement).expression);
+        if (statement instanceof Stmt.Print) return reach(((Stmt.Print)statement).expression);
+
+        Stmt.Block block = (Stmt.Block)statement;
+        int reach = 0;
+        for (Stmt inner : block.statements) reach = Math.max(reach, reach(inner, contained));
+        if (block.slots > 0 && reach > 0) reach--; // its own scope is one of them (blocks without locals aren't scopes)
+        if (reach == 0) contained.add(block);
+        return reach;
+    }
+
+    private static int reach(Expr expr) {
+        if (expr instanceof Expr.Variable) return ((Expr.Variable)expr).depth + 1; // 0 for globals
+        if (expr instanceof Expr.Assign) return Math.max(((Expr.Assign)expr).depth + 1, reach(((Expr.Assign)expr).value));
+        if (expr instanceof Expr.Binary) return Math.max(reach(((Expr.Binary)expr).left), reach(((Expr.Binary)expr).right));
+        if (expr instanceof Expr.Unary) return reach(((Expr.Unary)expr).right);
+        if (expr instanceof Expr.Grouping) return reach(((Expr.Grouping)expr).expression);
+        return 0; // a Literal
+    }
+
+    private void index(Stmt statement, int parent, Set<Stmt.Block> contained, List<Integer> parents, boolean top) {
+        if (!(statement instanceof Stmt.Block)) return;
+
+        Stmt.Block block = (Stmt.Block)statement;
+        if (!top && contained.contains(block)) {
+            int unit = units.size();
+            units.add(block);
+            parents.add(parent);
+            blocks.put(block, unit);
+            parent = unit;
+        }
+        for (Stmt inner : block.statements) index(inner, parent, contained, parents, false);
+    }
+
+    static int line(Stmt statement) { // the line of the statement's first token, 0 if it has none (e.g. "1;")
+        if (statement instanceof Stmt.Var) return ((Stmt.Var)statement).name.line;
+        if (statement instanceof Stmt.Expression) return line(((Stmt.Expression)statement).expression);
+        if (statement instanceof Stmt.Print) return line(((Stmt.Print)statement).expression);
+        Stmt.Block block = (Stmt.Block)statement;
+        if (block.lazy != null) return block.lazy.line(); // its body may not be parsed yet, the '{' is close enough
+        for (Stmt inner : block.statements) {
+            int line = line(inner);
+            if (line > 0) return line;
+        }
+        return 0;
+    }
+
+    static int line(Expr expr) {
+        if (expr instanceof Expr.Assign) return ((Expr.Assign)expr).name.line;
+        if (expr instanceof Expr.Variable) return ((Expr.Variable)expr).name.line;
+        if (expr instanceof Expr.Binary) {
+            int line = line(((Expr.Binary)expr).left);
+            return line > 0 ? line : ((Expr.Binary)expr).operator.line;
+        }
+        if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator.line;
+        if (expr instanceof Expr.Grouping) return line(((Expr.Grouping)expr).expression);
+        return 0; // a Literal keeps no token
+    }
+}
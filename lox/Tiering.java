@@ -0,0 +1,107 @@
+package lox;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Settings and the background compiler for Engine.Mode.TIERED. Programs start out interpreted, and every top level
+ * statement (and a nested block inside one that didn't compile, see TieredStatements) counts how often it runs; once
+ * one reaches the threshold it's handed to a single background thread, which compiles it with the JvmCompiler and
+ * swaps it in. Runs keep interpreting it until the compiled version shows up, so a run never waits on the compiler.
+ * Share one Tiering between the Engines that should share the compiler thread.
+ */
+public final class Tiering {
+    public static final int DEFAULT_THRESHOLD = 100;
+
+    /*
+     * Told about every tier change, on whichever thread caused it: promoted() on the running thread, the rest on the
+     * compiler thread. Top level statements are numbered by their position in the program, and the nested blocks that
+     * count on their own come after them, in the order they appear. Lines are where they start.
+     */
+    public interface Listener {
+        default void promoted(int statement, int line, int executions) {}
+
+        default void compiled(int statement, int line, long nanos) {}
+
+        default void failed(int statement, int line) {} // didn't fit in a class file, it stays interpreted
+    }
+
+    private final int threshold;
+    private final Listener listener;
+    private final AtomicLong promotions = new AtomicLong();
+    private final AtomicLong compilations = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private ExecutorService compiler; // started by the first promotion
+
+    public Tiering() {
+        this(DEFAULT_THRESHOLD, null);
+    }
+
+    public Tiering(int threshold, Listener listener) {
+        if (threshold < 1) throw new IllegalArgumentException("Tier threshold must be positive.");
+        this.threshold = threshold;
+        this.listener = listener == null ? new Listener() {} : listener;
+    }
+
+    public int threshold() {
+        return threshold;
+    }
+
+    public long promotions() {
+        return promotions.get();
+    }
+
+    public long compilations() { // statements now running compiled
+        return compilations.get();
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+
+    /*
+     * Waits until everything promoted so far has been compiled (or failed to), mostly so tests and benchmarks can tell
+     * when a program is fully tiered up. False if it timed out first.
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            compiler().submit(() -> {}).get(timeout, unit); // one thread working in order, so this runs after the rest
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause()); // can't happen, the task does nothing
+        }
+    }
+
+    void promoted(TieredStatements statements, int statement, int line, int executions) {
+        promotions.incrementAndGet();
+        listener.promoted(statement, line, executions);
+        compiler().execute(statements::compilePending);
+    }
+
+    void compiled(int statement, int line, long nanos) {
+        compilations.incrementAndGet();
+        listener.compiled(statement, line, nanos);
+    }
+
+    void failed(int statement, int line) {
+        failures.incrementAndGet();
+        listener.failed(statement, line);
+    }
+
+    private synchronized ExecutorService compiler() {
+        if (compiler == null) {
+            compiler = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "lox-tier-compiler");
+                thread.setDaemon(true); // never keeps the process alive just to compile code nobody will run
+                return thread;
+            });
+        }
+        return compiler;
+    }
+}
@@ -5,17 +5,35 @@ class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    final int symbol; // IDENTIFIERs only: the name's ID in Symbols, -1 for everything else
 
     // Token constructor
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, type == TokenType.IDENTIFIER ? Symbols.intern(lexeme) : -1);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int symbol) { // for a symbol that's already interned, see TokenBuffer
         this.type = type;
-        this.lexeme = lexeme;
+        this.symbol = symbol;
+        this.lexeme = symbol >= 0 ? Symbols.name(symbol) : lexeme; // one String per name, however often it shows up
         this.literal = literal;
         this.line = line;
     }
 
+    private Token(Token token, int line) {
+        this.type = token.type;
+        this.symbol = token.symbol;
+        this.lexeme = token.lexeme;
+        this.literal = token.literal;
+        this.line = line;
+    }
+
+    Token atLine(int line) { // the same token moved to another line, e.g. after an edit added lines above it
+        return line == this.line ? this : new Token(this, line);
+    }
+
     // this is useful for dealing with errors later
     public String toString() {
         return type + " " + lexeme + " " + literal;
     }
-}
\ No newline at end of file
+}
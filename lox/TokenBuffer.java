@@ -0,0 +1,166 @@
+package lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Compact token stream: instead of one Token object and one lexeme substring per token, we keep parallel primitive
+ * arrays (type, start offset, length, line) and only cut lexemes/literals out of the source when somebody asks.
+ * The parser reads types straight out of here and only materializes Tokens for the ones that end up in the AST.
+ * The scanners intern identifiers as they go and keep the symbol ID here (see Symbols), so a lexeme or Token for an
+ * identifier is the one shared String, and repeated string literals share one String too.
+ */
+class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private String source; // only ever replaced by splice()
+    private final ByteBuffer bytes; // set instead of source when the tokens came out of the ByteScanner, offsets are then byte offsets
+    private byte[] types = new byte[1024];
+    private int[] starts = new int[1024];
+    private int[] lengths = new int[1024];
+    private int[] lines = new int[1024];
+    private int[] symbols = new int[1024]; // IDENTIFIERs' symbol IDs, -1 for every other token
+    private int count = 0;
+    private final Map<String, String> strings = new HashMap<>(); // one String per distinct string literal, until splice()
+
+    TokenBuffer(String source) {
+        this.source = source;
+        this.bytes = null;
+    }
+
+    TokenBuffer(ByteBuffer bytes) {
+        this.source = null;
+        this.bytes = bytes;
+    }
+
+    void add(TokenType type, int start, int length, int line) {
+        add(type, start, length, line, -1);
+    }
+
+    void add(TokenType type, int start, int length, int line, int symbol) {
+        if (count == types.length) ensureCapacity(count + 1);
+        types[count] = (byte)type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+        symbols[count] = symbol;
+        count++;
+    }
+
+    void addAll(TokenBuffer other) { // appends another buffer over the same source, used to stitch chunks back together
+        ensureCapacity(count + other.count);
+        System.arraycopy(other.types, 0, types, count, other.count);
+        System.arraycopy(other.starts, 0, starts, count, other.count);
+        System.arraycopy(other.lengths, 0, lengths, count, other.count);
+        System.arraycopy(other.lines, 0, lines, count, other.count);
+        System.arraycopy(other.symbols, 0, symbols, count, other.count);
+        count += other.count;
+    }
+
+    /*
+     * Turns this into the tokens of an edited source, in place: tokens from..to are replaced with the ones in
+     * replacement (scanned from the edited source) and the ones after them move by shift characters and lineShift
+     * lines. Only for IncrementalCompiler, which is the only one holding on to its buffer.
+     *
+     * The literals seen so far are forgotten: an edit inside a string makes a new literal every time, and keeping them
+     * all would grow with the whole editing session. Trees already built keep their Strings, only the sharing between
+     * them and what gets parsed next is lost.
+     */
+    void splice(String edited, int from, int to, TokenBuffer replacement, int shift, int lineShift) {
+        int tail = count - to;
+        int moved = from + replacement.count;
+        ensureCapacity(moved + tail);
+        System.arraycopy(types, to, types, moved, tail);
+        System.arraycopy(starts, to, starts, moved, tail);
+        System.arraycopy(lengths, to, lengths, moved, tail);
+        System.arraycopy(lines, to, lines, moved, tail);
+        System.arraycopy(symbols, to, symbols, moved, tail);
+        count = from;
+        addAll(replacement);
+        if (shift != 0) {
+            for (int i = moved; i < moved + tail; i++) starts[i] += shift;
+        }
+        if (lineShift != 0) {
+            for (int i = moved; i < moved + tail; i++) lines[i] += lineShift;
+        }
+        count = moved + tail;
+        source = edited;
+        strings.clear();
+    }
+
+    private void ensureCapacity(int needed) {
+        int capacity = types.length;
+        while (capacity < needed) capacity *= 2;
+        if (capacity != types.length) {
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            symbols = Arrays.copyOf(symbols, capacity);
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int start(int index) {
+        return starts[index];
+    }
+
+    int length(int index) {
+        return lengths[index];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    String lexeme(int index) {
+        if (symbols[index] >= 0) return Symbols.name(symbols[index]); // already interned by the scanner
+        return text(starts[index], lengths[index], type(index) == TokenType.STRING);
+    }
+
+    private String text(int start, int length, boolean unicode) {
+        if (source != null) return source.substring(start, start + length);
+
+        byte[] raw = new byte[length];
+        bytes.get(start, raw);
+        // everything outside a string literal is ASCII (anything else is a scan error), so only strings pay for UTF-8 decoding
+        return new String(raw, unicode ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+    }
+
+    Object literal(int index) { // number and string literals are only parsed out of the source if the parser needs them
+        switch (type(index)) {
+            case NUMBER:
+                return Double.parseDouble(lexeme(index));
+            case STRING:
+                String text = text(starts[index] + 1, lengths[index] - 2, true); // drops the quotes
+                String seen = strings.putIfAbsent(text, text);
+                return seen != null ? seen : text;
+            default:
+                return null;
+        }
+    }
+
+    Token token(int index) { // materializes a full Token, for the AST and for error messages
+        return new Token(type(index), lexeme(index), literal(index), lines[index], symbols[index]);
+    }
+
+    List<Token> toTokens() {
+        List<Token> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tokens.add(token(i));
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,172 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Static pass that runs after the Resolver and works out which expressions can only ever produce numbers, so they can
+ * be evaluated as raw doubles instead of boxing every intermediate result. Lox here has no loops, branches or
+ * functions, so a block runs top to bottom exactly once each time it's entered, and walking it in order tells us the
+ * exact type every local has at every read. Two kinds of facts come out of it:
+ *
+ *   - Binary.number, Unary.number and Variable.number: the node evaluates to a double (or throws by itself, like
+ *     -"a" does), see isNumber()
+ *   - Block.unboxed, Var.unboxed, Assign.unboxed and Variable.unboxed: the local slot they use is only ever written
+ *     numbers, so the Interpreter keeps it in the Environment's double[] and never boxes it
+ *
+ * Globals are left alone: they outlive the Program, and an embedder can define them to anything before it runs.
+ */
+class TypeInference implements Expr.Visitor<Boolean>, Stmt.Visitor<Void> {
+
+    private static final class Scope { // one per block we're inside
+        final boolean[] number; // what each slot holds right now, nil until its var statement
+        final boolean[] onlyNumbers; // every write so far was a number
+        final List<List<Object>> users = new ArrayList<>(); // the Var, Assign and Variable nodes of each slot
+
+        Scope(int slots) {
+            number = new boolean[slots];
+            onlyNumbers = new boolean[slots];
+            Arrays.fill(onlyNumbers, true);
+            for (int i = 0; i < slots; i++) users.add(new ArrayList<>());
+        }
+    }
+
+    private final List<Scope> scopes = new ArrayList<>();
+
+    void infer(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    /*
+     * Whether an already inferred expression is a number, without walking it again. Only good after infer() ran on it;
+     * before that (e.g. in the Optimizer) use Optimizer.isNumber.
+     */
+    static boolean isNumber(Expr expr) {
+        if (expr instanceof Expr.Binary) return ((Expr.Binary)expr).number;
+        if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).number;
+        if (expr instanceof Expr.Variable) return ((Expr.Variable)expr).number;
+        if (expr instanceof Expr.Literal) return ((Expr.Literal)expr).value instanceof Double;
+        if (expr instanceof Expr.Grouping) return isNumber(((Expr.Grouping)expr).expression);
+        return isNumber(((Expr.Assign)expr).value); // an assignment evaluates to the value it assigned
+    }
+
+    private boolean infer(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private Scope scope(int depth) {
+        return scopes.get(scopes.size() - 1 - depth);
+    }
+
+    private void write(Scope scope, int slot, boolean number, Object user) {
+        scope.number[slot] = number;
+        if (!number) scope.onlyNumbers[slot] = false;
+        scope.users.get(slot).add(user);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        stmt.unboxed = false;
+        if (stmt.slots == 0) { // declares nothing, so it isn't a scope the resolver counted
+            infer(stmt.statements);
+            return null;
+        }
+
+        Scope scope = new Scope(stmt.slots);
+        scopes.add(scope);
+        infer(stmt.statements);
+        scopes.remove(scopes.size() - 1);
+
+        // only now do we know every write to the block's slots, so this is when their nodes learn where the slot lives
+        for (int slot = 0; slot < stmt.slots; slot++) {
+            boolean unboxed = scope.onlyNumbers[slot];
+            stmt.unboxed |= unboxed;
+            for (Object user : scope.users.get(slot)) {
+                if (user instanceof Stmt.Var) ((Stmt.Var)user).unboxed = unboxed;
+                else if (user instanceof Expr.Assign) ((Expr.Assign)user).unboxed = unboxed;
+                else ((Expr.Variable)user).unboxed = unboxed;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        boolean number = stmt.initializer != null && infer(stmt.initializer); // no initializer means nil
+        stmt.unboxed = false;
+        if (stmt.slot >= 0) write(scope(0), stmt.slot, number, stmt);
+        return null;
+    }
+
+    @Override
+    public Boolean visitAssignExpr(Expr.Assign expr) {
+        boolean number = infer(expr.value);
+        expr.unboxed = false;
+        if (expr.depth >= 0) write(scope(expr.depth), expr.slot, number, expr);
+        return number;
+    }
+
+    @Override
+    public Boolean visitBinaryExpr(Expr.Binary expr) {
+        boolean left = infer(expr.left);
+        boolean right = infer(expr.right);
+        switch (expr.operator.type) {
+            case MINUS:
+            case STAR:
+            case SLASH:
+                expr.number = true; // numbers, or a runtime error
+                break;
+            case PLUS:
+                expr.number = left && right; // anything else might be string concatenation
+                break;
+            default:
+                expr.number = false; // comparisons and equality give booleans
+        }
+        return expr.number;
+    }
+
+    @Override
+    public Boolean visitGroupingExpr(Expr.Grouping expr) {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public Boolean visitLiteralExpr(Expr.Literal expr) {
+        return expr.value instanceof Double;
+    }
+
+    @Override
+    public Boolean visitVariableExpr(Expr.Variable expr) {
+        expr.unboxed = false;
+        if (expr.depth < 0) {
+            expr.number = false; // a global, could be anything
+        } else {
+            Scope scope = scope(expr.depth);
+            expr.number = scope.number[expr.slot];
+            scope.users.get(expr.slot).add(expr);
+        }
+        return expr.number;
+    }
+
+    @Override
+    public Boolean visitUnaryExpr(Expr.Unary expr) {
+        infer(expr.right);
+        expr.number = expr.operator.type == TokenType.MINUS; // -x is a number or a runtime error, !x is a boolean
+        return expr.number;
+    }
+}
@@ -0,0 +1,179 @@
+package lox;
+
+/*
+ * Stack based virtual machine that runs a Chunk produced by the BytecodeCompiler. One tight loop, one switch on the
+ * opcode byte, no visitor dispatch. Output and runtime errors match the Interpreter exactly.
+ */
+class VM {
+    private final Environment globals; // survives between runs, just like the Interpreter's
+    private final OutputSink out;
+    private final Diagnostics diagnostics;
+
+    VM() {
+        this(new GlobalNames(), new BufferedOutputSink(), new Diagnostics(System.err));
+    }
+
+    VM(GlobalNames names, OutputSink out, Diagnostics diagnostics) {
+        this.globals = new Environment(names);
+        this.out = out;
+        this.diagnostics = diagnostics;
+    }
+
+    void define(String name, Object value) { // lets an embedder set up globals before running anything
+        globals.define(name, value);
+    }
+
+    void interpret(Chunk chunk) {
+        try {
+            run(chunk);
+        } catch (RuntimeError error) {
+            out.flush(); // so everything printed before the error shows up before the error does
+            diagnostics.runtimeError(error);
+        } finally {
+            out.flush();
+        }
+    }
+
+    private void run(Chunk chunk) {
+        final byte[] code = chunk.code;
+        final Token[] tokens = chunk.tokens;
+        final Object[] constants = chunk.constants();
+        final Object[] locals = new Object[chunk.maxLocals];
+        final Object[] stack = new Object[chunk.maxStack];
+        int sp = 0; // next free stack slot
+        int ip = 0; // next byte to execute
+
+        for (;;) {
+            int start = ip; // remembered so errors can find the instruction's token
+            byte op = code[ip++];
+            switch (op) {
+                case OpCode.CONSTANT:
+                    stack[sp++] = constants[readOperand(code, ip)];
+                    ip += 3;
+                    break;
+                case OpCode.NIL: stack[sp++] = null; break;
+                case OpCode.TRUE: stack[sp++] = true; break;
+                case OpCode.FALSE: stack[sp++] = false; break;
+                case OpCode.POP: sp--; break;
+                case OpCode.GET_LOCAL:
+                    stack[sp++] = locals[readOperand(code, ip)];
+                    ip += 3;
+                    break;
+                case OpCode.SET_LOCAL:
+                    locals[readOperand(code, ip)] = stack[sp - 1];
+                    ip += 3;
+                    break;
+                case OpCode.DEFINE_LOCAL:
+                    locals[readOperand(code, ip)] = stack[--sp];
+                    ip += 3;
+                    break;
+                case OpCode.GET_GLOBAL:
+                    stack[sp++] = ((GlobalSite)constants[readOperand(code, ip)]).get(globals);
+                    ip += 3;
+                    break;
+                case OpCode.SET_GLOBAL:
+                    ((GlobalSite)constants[readOperand(code, ip)]).assign(globals, stack[sp - 1]);
+                    ip += 3;
+                    break;
+                case OpCode.DEFINE_GLOBAL:
+                    globals.defineGlobal((int)constants[readOperand(code, ip)], stack[--sp]);
+                    ip += 3;
+                    break;
+                case OpCode.EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.GREATER: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(tokens[start], left, right);
+                    stack[sp - 1] = (double)left > (double)right;
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(tokens[start], left, right);
+                    stack[sp - 1] = (double)left >= (double)right;
+                    break;
+                }
+                case OpCode.LESS: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(tokens[start], left, right);
+                    stack[sp - 1] = (double)left < (double)right;
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(tokens[start], left, right);
+                    stack[sp - 1] = (double)left <= (double)right;
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double)left + (double)right;
+                    } else if (left instanceof String && right instanceof String) {
+                        stack[sp - 1] = (String)left + (String)right;
+                    } else {
+                        throw new RuntimeError(tokens[start], "Operands must be two numbers or two strings.");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(tokens[start], left, right);
+                    stack[sp - 1] = (double)left - (double)right;
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(tokens[start], left, right);
+                    stack[sp - 1] = (double)left * (double)right;
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    checkNumberOperands(tokens[start], left, right);
+                    stack[sp - 1] = (double)left / (double)right;
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE: {
+                    Object operand = stack[sp - 1];
+                    if (!(operand instanceof Double)) throw new RuntimeError(tokens[start], "Operand must be a number.");
+                    stack[sp - 1] = -(double)operand;
+                    break;
+                }
+                case OpCode.PRINT:
+                    out.print(stack[--sp]);
+                    break;
+                case OpCode.RETURN:
+                    return;
+            }
+        }
+    }
+
+    private static int readOperand(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 16) | ((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff);
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+}
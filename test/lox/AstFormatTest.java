@@ -0,0 +1,189 @@
+package lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * AstWriter and AstReader (the --ast-cache format): whatever gets written has to come back as the same tree, tokens and
+ * lines included, and AstFile has to treat anything it can't trust as a miss.
+ */
+class AstFormatTest {
+    private static final String EVERY_NODE = "var a = 1;\nvar b;\nvar s = \"multi\nline é 😀\";\n"
+            + "print nil; print true == !false; print -a * (a + 2.5) / 3 - 1 >= 0 != (a < 2);\n"
+            + "{ var c = a; { c = a = c + 1; print c <= b; } print s + \"!\"; }\n"
+            + "a > b;\nprint 12345678.25;\n";
+
+    @Test
+    void everyScriptRoundTrips() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get("test", "scripts"), "*.lox")) {
+            for (Path file : files) {
+                Diagnostics diagnostics = new Diagnostics();
+                List<Stmt> parsed = parse(Files.readString(file), diagnostics);
+                if (diagnostics.hadError()) continue; // never saved
+
+                assertEquals(dump(parsed), dump(roundTrip(parsed)), file.toString());
+            }
+        }
+    }
+
+    @Test
+    void everyNodeRoundTrips() throws IOException {
+        List<Stmt> parsed = parse(EVERY_NODE, new Diagnostics());
+        assertEquals(dump(parsed), dump(roundTrip(parsed)));
+    }
+
+    @Test
+    void loadedTreesRunTheSame() throws IOException {
+        for (Engine.Mode mode : Engine.Mode.values()) {
+            Engine engine = new Engine(mode, false);
+            Context parsed = engine.capturingContext();
+            engine.compile(EVERY_NODE).run(parsed);
+
+            Diagnostics diagnostics = new Diagnostics();
+            Context loaded = engine.capturingContext();
+            engine.compile(roundTrip(parse(EVERY_NODE, new Diagnostics())), diagnostics).run(loaded);
+            assertEquals(parsed.output(), loaded.output(), mode.name());
+            assertEquals(parsed.diagnostics().messages(), loaded.diagnostics().messages(), mode.name());
+        }
+    }
+
+    @Test
+    void astFileOnlyLoadsWhatMatchesTheSource(@TempDir Path dir) throws IOException {
+        Path script = Files.writeString(dir.resolve("script.lox"), EVERY_NODE);
+        Path saved = AstFile.pathFor(script);
+        String hash = ProgramCache.key(EVERY_NODE);
+
+        List<Stmt> parsed = AstFile.parse(script, EVERY_NODE, new Diagnostics());
+        assertTrue(Files.isRegularFile(saved));
+        List<Stmt> loaded = AstFile.load(saved, hash);
+        assertNotNull(loaded);
+        assertEquals(dump(parsed), dump(loaded));
+
+        assertNull(AstFile.load(saved, ProgramCache.key(EVERY_NODE + " "))); // the source changed
+        assertNull(AstFile.load(dir.resolve("missing.loxb"), hash));
+
+        byte[] bytes = Files.readAllBytes(saved);
+        Files.write(saved, Arrays.copyOf(bytes, bytes.length / 2));
+        assertNull(AstFile.load(saved, hash));
+
+        Files.write(saved, Arrays.copyOf(bytes, bytes.length + 1)); // trailing garbage
+        assertNull(AstFile.load(saved, hash));
+
+        for (int bit = 0; bit < bytes.length * 8; bit += 3) { // the checksum catches any one flipped bit, header or not
+            byte[] damaged = bytes.clone();
+            damaged[bit / 8] ^= 1 << (bit % 8);
+            Files.write(saved, damaged);
+            assertNull(AstFile.load(saved, hash), "bit " + bit);
+        }
+
+        assertEquals(dump(parsed), dump(AstFile.parse(script, EVERY_NODE, new Diagnostics()))); // a miss saves it again
+        assertEquals(dump(parsed), dump(AstFile.load(saved, hash)));
+    }
+
+    @Test
+    void nullsOnlyWhereTheTreeAllowsThem() throws IOException {
+        assertEquals(1, read(1, 4, name(), 0).size()); // var x; has no initializer
+        assertThrows(IOException.class, () -> read(1, 3, 0)); // print with no expression
+        assertThrows(IOException.class, () -> read(1, 0)); // no statement at all
+        assertThrows(IOException.class, () -> read(1, 4, name(), 1, nameAgain(), 0)); // var x = (x = <nothing>)
+    }
+
+    @Test
+    void scriptsWithErrorsAreNotSaved(@TempDir Path dir) throws IOException {
+        String source = "print 1 +;\n";
+        Path script = Files.writeString(dir.resolve("broken.lox"), source);
+        Diagnostics diagnostics = new Diagnostics();
+        AstFile.parse(script, source, diagnostics);
+        assertTrue(diagnostics.hadError());
+        assertFalse(Files.exists(AstFile.pathFor(script)));
+    }
+
+    private static List<Stmt> parse(String source, Diagnostics diagnostics) {
+        return new Parser(new Scanner(source, diagnostics).scanTokenBuffer(), diagnostics).parse();
+    }
+
+    private static List<Stmt> roundTrip(List<Stmt> statements) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            new AstWriter(out).writeStatements(statements);
+        }
+        return new AstReader(ByteBuffer.wrap(bytes.toByteArray())).readStatements();
+    }
+
+    private static List<Stmt> read(Object... bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object value : bytes) {
+            if (value instanceof byte[]) out.writeBytes((byte[])value); else out.write((int)value);
+        }
+        return new AstReader(ByteBuffer.wrap(out.toByteArray())).readStatements();
+    }
+
+    private static byte[] name() { // the identifier x on line 1: type, new string 0 of length 1, no literal, line
+        return new byte[] { (byte)TokenType.IDENTIFIER.ordinal(), 0, 1, 'x', 0, 1 };
+    }
+
+    private static byte[] nameAgain() { // the same, but x is string 0 by now
+        return new byte[] { (byte)TokenType.IDENTIFIER.ordinal(), 0, 0, 1 };
+    }
+
+    /*
+     * The tree as the parser builds it: every node's final fields, with the tokens' type, lexeme, literal and line. The
+     * mutable ones are filled in later by the Resolver and friends, which run again on a loaded tree.
+     */
+    private static String dump(List<Stmt> statements) {
+        StringBuilder out = new StringBuilder();
+        dump(statements, out);
+        return out.toString();
+    }
+
+    private static void dump(Object value, StringBuilder out) {
+        if (value instanceof Token) {
+            Token token = (Token)value;
+            out.append(token.type).append(' ').append(token.lexeme).append(' ').append(token.literal).append(" @").append(token.line);
+        } else if (value instanceof List) {
+            out.append('[');
+            for (Object element : (List<?>)value) {
+                dump(element, out);
+                out.append(", ");
+            }
+            out.append(']');
+        } else if (value instanceof Expr || value instanceof Stmt) {
+            out.append(value.getClass().getSimpleName()).append('(');
+            for (Field field : value.getClass().getDeclaredFields()) {
+                if (!Modifier.isFinal(field.getModifiers())) continue;
+                try {
+                    field.setAccessible(true);
+                    out.append(field.getName()).append('=');
+                    dump(field.get(value), out);
+                    out.append(' ');
+                } catch (IllegalAccessException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            out.append(')');
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+}
@@ -0,0 +1,139 @@
+package lox;
+
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Runs every script in test/scripts (plus a generated one big enough for the parallel scanner to split) under every
+ * engine mode and every combination of the command line's --optimize, --lazy and front end flags, and checks each run
+ * prints the same output, reports the same errors and ends with the same exit status as the plain interpreter.
+ */
+class EngineDifferentialTest {
+    private static final Path SCRIPTS = Paths.get("test", "scripts");
+
+    enum FrontEnd { SOURCE, CACHED, MMAP, PARALLEL_SCAN, AST_CACHE }
+
+    @TestFactory
+    List<DynamicTest> everyEngineAgreesWithTheInterpreter(@TempDir Path dir) throws IOException {
+        List<Path> scripts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(SCRIPTS, "*.lox")) {
+            for (Path file : files) scripts.add(Files.copy(file, dir.resolve(file.getFileName()))); // --ast-cache writes next to them
+        }
+        scripts.add(Files.writeString(dir.resolve("large.lox"), large()));
+
+        List<DynamicTest> tests = new ArrayList<>();
+        for (Path script : scripts) {
+            String expected = run(script, Engine.Mode.INTERPRETER, false, false, FrontEnd.SOURCE);
+            for (Engine.Mode mode : Engine.Mode.values()) {
+                for (boolean optimize : new boolean[] { false, true }) {
+                    for (boolean lazy : new boolean[] { false, true }) {
+                        if (lazy && mode != Engine.Mode.INTERPRETER && mode != Engine.Mode.SPECIALIZING && mode != Engine.Mode.PROFILING) continue;
+
+                        for (FrontEnd frontEnd : FrontEnd.values()) {
+                            String name = script.getFileName() + " " + flags(mode, optimize, lazy, frontEnd);
+                            tests.add(DynamicTest.dynamicTest(name, () -> assertEquals(expected, run(script, mode, optimize, lazy, frontEnd))));
+                        }
+                    }
+                }
+            }
+        }
+        return tests;
+    }
+
+    /*
+     * Compiles and runs the script the way `jlox <flags> script` would and describes what happened: the output, the
+     * error messages and the exit status. TIERED runs it a few times, so the later runs go through the compiled tier.
+     */
+    private static String run(Path script, Engine.Mode mode, boolean optimize, boolean lazy, FrontEnd frontEnd) throws IOException {
+        boolean tiered = mode == Engine.Mode.TIERED;
+        Engine engine = new Engine(mode, optimize, frontEnd == FrontEnd.CACHED ? new ProgramCache(16, Long.MAX_VALUE) : null,
+                tiered ? new Tiering(1, null) : null, lazy);
+
+        String result = run(script, engine, frontEnd);
+        if (tiered) {
+            awaitIdle(engine.tiering());
+            String compiled = run(script, engine, frontEnd);
+            assertEquals(result, compiled, "tiered run after promotion");
+        }
+        return result;
+    }
+
+    private static String run(Path script, Engine engine, FrontEnd frontEnd) throws IOException {
+        Diagnostics diagnostics = new Diagnostics();
+        Program program = compile(script, engine, frontEnd, diagnostics);
+        int status = 0;
+        String output = "";
+        if (diagnostics.hadError()) {
+            assertTrue(program.hadErrors());
+            status = 65;
+        } else {
+            Context context = engine.newContext(new StringOutputSink(), diagnostics);
+            program.run(context);
+            output = context.output();
+            if (diagnostics.hadRuntimeError()) status = 70;
+        }
+        return output + String.join("\n", diagnostics.messages()) + "\nexit " + status;
+    }
+
+    private static Program compile(Path script, Engine engine, FrontEnd frontEnd, Diagnostics diagnostics) throws IOException {
+        String source = Files.readString(script);
+        switch (frontEnd) {
+            case SOURCE:
+                return engine.compile(source, diagnostics, false);
+            case CACHED:
+                engine.compile(source, new Diagnostics(), false); // fills the cache, unless it had errors
+                return engine.compile(source, diagnostics, false);
+            case MMAP:
+                return engine.compile(engine.scan(ByteScanner.map(script, diagnostics)), diagnostics);
+            case PARALLEL_SCAN:
+                return engine.compile(source, diagnostics, true);
+            case AST_CACHE:
+                AstFile.parse(script, source, new Diagnostics()); // saves it, unless it had errors
+                return engine.compile(AstFile.parse(script, source, diagnostics), diagnostics);
+            default:
+                throw new AssertionError(frontEnd);
+        }
+    }
+
+    private static String flags(Engine.Mode mode, boolean optimize, boolean lazy, FrontEnd frontEnd) {
+        StringBuilder flags = new StringBuilder(mode.name().toLowerCase());
+        if (optimize) flags.append(" --optimize");
+        if (lazy) flags.append(" --lazy");
+        if (frontEnd != FrontEnd.SOURCE) flags.append(" --").append(frontEnd.name().toLowerCase().replace('_', '-'));
+        return flags.toString();
+    }
+
+    private static void awaitIdle(Tiering tiering) {
+        try {
+            assertTrue(tiering.awaitIdle(1, TimeUnit.MINUTES), "tiering didn't finish");
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /*
+     * A few hundred KB, so --parallel-scan really splits it, with multi line strings for chunk boundaries to land in
+     */
+    private static String large() {
+        StringBuilder source = new StringBuilder("var g = 0;\n");
+        for (int i = 0; i < 4000; i++) {
+            source.append("var v").append(i).append(" = ").append(i).append(" * 0.5;\n")
+                  .append("{ var w = v").append(i).append(" + g; g = w - 1; { print w * 2 > g; } }\n");
+            if (i % 50 == 0) source.append("print \"multi\nline ").append(i).append("\n\" + \"!\";\n");
+        }
+        return source.append("print g;\n").toString();
+    }
+}
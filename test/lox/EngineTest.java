@@ -0,0 +1,102 @@
+package lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * The embedding API: what Engine, Program and Context let a host do, and what they refuse to.
+ */
+class EngineTest {
+    @Test
+    void programsOnlyRunOnTheirOwnEngine() {
+        Engine plain = new Engine(Engine.Mode.INTERPRETER, false);
+        Engine optimizing = new Engine(Engine.Mode.INTERPRETER, true);
+        Engine lazy = new Engine(Engine.Mode.INTERPRETER, false, null, null, true);
+        Program program = plain.compile("{ var a = 1 + 2; print a; }");
+
+        assertThrows(IllegalArgumentException.class, () -> program.run(optimizing.capturingContext()));
+        assertThrows(IllegalArgumentException.class, () -> program.run(lazy.capturingContext()));
+        assertThrows(IllegalArgumentException.class, () -> program.run(new Engine().capturingContext())); // same settings, still another engine
+
+        Context context = plain.capturingContext();
+        program.run(context);
+        assertEquals("3" + System.lineSeparator(), context.output());
+    }
+
+    @Test
+    void aSharedCacheKeepsEveryEnginesProgramsApart() {
+        ProgramCache cache = new ProgramCache(16, Long.MAX_VALUE);
+        Engine interpreter = new Engine(Engine.Mode.INTERPRETER, false, cache);
+        Engine vm = new Engine(Engine.Mode.VM, false, cache);
+        Engine optimizing = new Engine(Engine.Mode.VM, true, cache);
+        String source = "var a = 2; print a * 3;";
+
+        Program first = interpreter.compile(source);
+        Program second = vm.compile(source);
+        Program third = optimizing.compile(source);
+        assertEquals(0, cache.hits());
+        assertEquals(3, cache.size());
+        assertSame(first, interpreter.compile(source));
+        assertSame(second, vm.compile(source));
+        assertSame(third, optimizing.compile(source));
+        assertEquals(3, cache.hits());
+
+        for (Program program : new Program[] { first, second, third }) {
+            Context context = program.engine.capturingContext();
+            program.run(context);
+            assertEquals("6" + System.lineSeparator(), context.output());
+        }
+    }
+
+    @Test
+    void programsWithErrorsDontRun() {
+        Engine engine = new Engine();
+        Program program = engine.compile("print 1 +;");
+        assertEquals(1, program.errors().size());
+        assertThrows(IllegalStateException.class, () -> program.run(engine.capturingContext()));
+    }
+
+    @Test
+    void globalTablesOnlyHoldTheirEnginesNames() throws ReflectiveOperationException {
+        StringBuilder many = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) many.append("var unrelated").append(i).append(" = ").append(i).append(";\n");
+        Engine other = new Engine(Engine.Mode.VM, false);
+        other.compile(many.toString()).run(other.capturingContext()); // the process now knows 50k more symbols
+
+        Engine.Mode[] modes = { Engine.Mode.INTERPRETER, Engine.Mode.VM, Engine.Mode.JVM, Engine.Mode.CLOSURES };
+        for (Engine.Mode mode : modes) {
+            Engine engine = new Engine(mode, false);
+            Context context = engine.capturingContext();
+            assertTrue(globalTable(context).length <= 16, mode.name());
+
+            context.define("x", 2);
+            engine.compile("var a = x + 1; print a;").run(context);
+            engine.compile("var unrelated49999 = a * 2; print unrelated49999;").run(context); // new to this table
+            engine.compile("print unrelated1;").run(context); // the other engine's global, not ours
+            assertEquals("3" + System.lineSeparator() + "6" + System.lineSeparator(), context.output(), mode.name());
+            assertEquals(1, context.diagnostics().messages().size(), mode.name());
+            assertTrue(globalTable(context).length <= 16, mode.name());
+        }
+    }
+
+    private static Object[] globalTable(Context context) throws ReflectiveOperationException {
+        Object runner = field(context, context.getClass(), "interpreter");
+        if (runner == null) runner = field(context, context.getClass(), "vm");
+        Class<?> type = runner.getClass();
+        while (type != Interpreter.class && type != VM.class) type = type.getSuperclass();
+        Object globals = field(runner, type, "globals");
+        return (Object[])field(globals, Environment.class, "values");
+    }
+
+    private static Object field(Object object, Class<?> type, String name) throws ReflectiveOperationException {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(object);
+    }
+}
@@ -0,0 +1,120 @@
+package lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Makes random edits (single characters, whole statements, deletions) to random scripts and checks that after every
+ * edit the incrementally updated Program behaves exactly like one compiled from scratch: same output, same errors,
+ * same number of nodes the optimizer took out.
+ */
+class IncrementalCompilerTest {
+    private static final String[] PIECES = {
+        "var a = 1;\n", "print a + 2;\n", "{ var b = a * 3; print b; }\n", "print \"s\" + \"t\";\n", "a = a + 1.5;\n",
+        "// comment\n", "{ { var c = 2; print c / 4; } }\n", "print -\"x\";\n", "print 10 - 2 * 3;\n", "\n\n",
+        "var s = \"multi\nline\";\n", "print s;\n",
+    };
+    private static final String CHARS = "a1.5\n \";{}()+-*/=!<>var print//x\t";
+    private static final int SCRIPTS = 60; // per engine
+    private static final int EDITS = 20; // per script
+
+    @Test
+    void interpreter() {
+        fuzz(new Engine(Engine.Mode.INTERPRETER, false), 1);
+    }
+
+    @Test
+    void interpreterOptimized() {
+        fuzz(new Engine(Engine.Mode.INTERPRETER, true), 2);
+    }
+
+    @Test
+    void vm() {
+        fuzz(new Engine(Engine.Mode.VM, false), 3);
+    }
+
+    @Test
+    void vmOptimized() {
+        fuzz(new Engine(Engine.Mode.VM, true), 4);
+    }
+
+    @Test
+    void closures() {
+        fuzz(new Engine(Engine.Mode.CLOSURES, false), 5);
+    }
+
+    @Test
+    void closuresOptimized() {
+        fuzz(new Engine(Engine.Mode.CLOSURES, true), 6);
+    }
+
+    @Test
+    void editsAtTheEdges() {
+        Engine engine = new Engine();
+        IncrementalCompiler editor = new IncrementalCompiler(engine, "");
+        assertEquals("|[]|0", describe(engine, editor.program()));
+
+        editor.edit(0, 0, "print 1;");
+        editor.edit(8, 0, "\nprint 2;");
+        editor.edit(0, 0, "var x = 0;\n");
+        assertEquals("var x = 0;\nprint 1;\nprint 2;", editor.source());
+        assertEquals(describe(engine, engine.compile(editor.source())), describe(engine, editor.program()));
+
+        editor.edit(0, editor.source().length(), "");
+        assertEquals("", editor.source());
+        assertEquals("|[]|0", describe(engine, editor.program()));
+    }
+
+    @Test
+    void typingIntoAStringDoesntKeepEveryVersion() throws ReflectiveOperationException {
+        Engine engine = new Engine();
+        IncrementalCompiler editor = new IncrementalCompiler(engine, "print \"a\";\nprint \"\";\nprint \"a\";\n");
+        for (int i = 0; i < 2000; i++) editor.edit(18, 0, "x"); // between the second pair of quotes
+
+        assertEquals(describe(engine, engine.compile(editor.source())), describe(engine, editor.program()));
+        Field tokens = IncrementalCompiler.class.getDeclaredField("tokens");
+        tokens.setAccessible(true);
+        Field strings = TokenBuffer.class.getDeclaredField("strings");
+        strings.setAccessible(true);
+        assertTrue(((Map<?, ?>)strings.get(tokens.get(editor))).size() <= 3);
+    }
+
+    private static void fuzz(Engine engine, long seed) {
+        Random random = new Random(seed);
+        for (int script = 0; script < SCRIPTS; script++) {
+            StringBuilder source = new StringBuilder();
+            for (int i = 1 + random.nextInt(20); i > 0; i--) source.append(PIECES[random.nextInt(PIECES.length)]);
+            IncrementalCompiler editor = new IncrementalCompiler(engine, source.toString());
+
+            for (int edit = 0; edit < EDITS; edit++) {
+                String before = editor.source();
+                int offset = random.nextInt(before.length() + 1);
+                int removed = random.nextInt(4) == 0 ? Math.min(before.length() - offset, random.nextInt(6)) : 0;
+                int kind = random.nextInt(10);
+                String inserted = kind < 5 ? String.valueOf(CHARS.charAt(random.nextInt(CHARS.length())))
+                        : kind < 8 ? PIECES[random.nextInt(PIECES.length)]
+                        : "";
+
+                Program program = editor.edit(offset, removed, inserted);
+                String after = before.substring(0, offset) + inserted + before.substring(offset + removed);
+                String message = "edit(" + offset + ", " + removed + ", \"" + inserted + "\") on\n" + before;
+                assertEquals(after, editor.source(), message);
+                assertEquals(describe(engine, engine.compile(after)), describe(engine, program), message);
+            }
+        }
+    }
+
+    private static String describe(Engine engine, Program program) {
+        if (program.hadErrors()) return "errors " + program.errors();
+
+        Context context = engine.capturingContext();
+        program.run(context);
+        return context.output() + "|" + context.diagnostics().messages() + "|" + program.eliminatedNodes();
+    }
+}
@@ -0,0 +1,32 @@
+package lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/*
+ * JvmCompiler gives up quietly (null, so the caller interprets) only when the class file format can't hold the script.
+ */
+class JvmCompilerTest {
+    @Test
+    void scriptsTooBigForAClassFileAreInterpreted() {
+        assertNull(new JvmCompiler().compile(List.of(print(new Expr.Literal("x".repeat(70_000))))));
+        assertNotNull(new JvmCompiler().compile(List.of(print(new Expr.Literal("x".repeat(60_000))))));
+    }
+
+    @Test
+    void compilerBugsAreNotMistakenForThat() {
+        Token comma = new Token(TokenType.COMMA, ",", null, 1);
+        Stmt broken = print(new Expr.Binary(new Expr.Literal("a"), comma, new Expr.Literal("b"))); // no such operator
+        assertThrows(IllegalStateException.class, () -> new JvmCompiler().compile(List.of(broken)));
+        assertThrows(IllegalStateException.class, () -> new JvmCompiler().compileEach(List.of(broken)));
+    }
+
+    private static Stmt print(Expr expression) {
+        return new Stmt.Print(expression);
+    }
+}
@@ -0,0 +1,100 @@
+package lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * What Engine.Mode.TIERED promotes and compiles, as told to a Tiering.Listener, and that runs print the same before,
+ * during and after.
+ */
+class TieringTest {
+    private static final String NEWLINE = System.lineSeparator();
+
+    @Test
+    void topLevelStatementsCompileWithTheirBlocks() throws InterruptedException {
+        Events events = new Events();
+        Engine engine = new Engine(Engine.Mode.TIERED, false, null, new Tiering(2, events));
+        Program program = engine.compile("var g = 1;\n{ var a = g; { var b = 2; print a + b; } { print g; } }\nprint g;\n");
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("3" + NEWLINE + "1" + NEWLINE + "1" + NEWLINE, run(engine, program));
+            assertTrue(engine.tiering().awaitIdle(1, TimeUnit.MINUTES));
+        }
+        // { print g; } could compile on its own, but never counts: the block around it compiled
+        assertEquals(List.of("compiled 0", "compiled 1", "compiled 2", "promoted 0", "promoted 1", "promoted 2"),
+                events.sorted());
+    }
+
+    @Test
+    void nestedBlocksCompileWhenTheStatementAroundThemCant() throws InterruptedException {
+        Events events = new Events();
+        Engine engine = new Engine(Engine.Mode.TIERED, false, null, new Tiering(2, events));
+        String big = "x".repeat(70_000); // over the class file's 64K limit for a constant
+        Program program = engine.compile("var g = 1;\n"
+                + "{ var big = \"" + big + "\";\n"
+                + "  { var x = g; print x + 1; }\n" // only a global and its own local, so it can run compiled on its own
+                + "  { print big == nil; }\n" // reads the enclosing block's local, so it can't
+                + "}\n");
+
+        for (int i = 0; i < 8; i++) {
+            assertEquals("2" + NEWLINE + "false" + NEWLINE, run(engine, program));
+            assertTrue(engine.tiering().awaitIdle(1, TimeUnit.MINUTES));
+        }
+        assertEquals(List.of("compiled 0", "compiled 2", "failed 1", "promoted 0", "promoted 1", "promoted 2"),
+                events.sorted());
+        assertEquals(1, engine.tiering().failures());
+    }
+
+    @Test
+    void compiledNestedBlocksReportRuntimeErrors() throws InterruptedException {
+        Engine engine = new Engine(Engine.Mode.TIERED, false, null, new Tiering(1, null));
+        String big = "x".repeat(70_000);
+        Program program = engine.compile("{ var big = \"" + big + "\"; print 1; { var y = -\"s\"; } print 2; }\n");
+
+        for (int i = 0; i < 4; i++) {
+            Context context = engine.capturingContext();
+            program.run(context);
+            assertEquals("1" + NEWLINE, context.output());
+            assertEquals(List.of("Operand must be a number." + NEWLINE + "[line 1 ]"), context.diagnostics().messages());
+            assertTrue(engine.tiering().awaitIdle(1, TimeUnit.MINUTES));
+        }
+    }
+
+    private static String run(Engine engine, Program program) {
+        Context context = engine.capturingContext();
+        program.run(context);
+        assertEquals(List.of(), context.diagnostics().messages());
+        return context.output();
+    }
+
+    private static final class Events implements Tiering.Listener {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public synchronized void promoted(int statement, int line, int executions) {
+            events.add("promoted " + statement);
+        }
+
+        @Override
+        public synchronized void compiled(int statement, int line, long nanos) {
+            events.add("compiled " + statement);
+        }
+
+        @Override
+        public synchronized void failed(int statement, int line) {
+            events.add("failed " + statement);
+        }
+
+        synchronized List<String> sorted() { // promotions and compilations race each other, so only what happened counts
+            List<String> sorted = new ArrayList<>(events);
+            sorted.sort(null);
+            return sorted;
+        }
+    }
+}
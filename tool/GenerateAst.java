@@ -2,6 +2,7 @@ package tool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -12,21 +13,24 @@ public class GenerateAst {
             System.exit(64);
         }
         String outputDir = args[0];
-        defineAst(outputDir, "Expr", Arrays.asList(
-            "Assign    : Token name, Expr value",
-                "Binary    : Expr left, Token operator, Expr right",
+        List<String> exprTypes = Arrays.asList(
+            "Assign    : Token name, Expr value | int depth = -1, int slot, GlobalSite global, boolean unboxed",
+                "Binary    : Expr left, Token operator, Expr right | Specialization specialization = Specialization.UNINITIALIZED, boolean number",
                 "Grouping  : Expr expression",
                 "Literal   : Object value",
-                "Variable  : Token name",
-                "Unary     : Token operator, Expr right"
-        ));
-
-        defineAst(outputDir, "Stmt", Arrays.asList(
-           "Block      : List<Stmt> statements",
+                "Variable  : Token name | int depth = -1, int slot, GlobalSite global, boolean number, boolean unboxed",
+                "Unary     : Token operator, Expr right | Specialization specialization = Specialization.UNINITIALIZED, boolean number"
+        );
+        List<String> stmtTypes = Arrays.asList(
+           "Block      : List<Stmt> statements | int slots, boolean unboxed, LazyBlock lazy",
                 "Expression : Expr expression",
                 "Print      : Expr expression",
-                "Var        : Token name, Expr initializer "
-        ));
+                "Var        : Token name, Expr? initializer | int slot = -1, GlobalSite global, boolean unboxed"
+        );
+
+        defineAst(outputDir, "Expr", exprTypes);
+        defineAst(outputDir, "Stmt", stmtTypes);
+        defineSerializer(outputDir, exprTypes, stmtTypes);
     }
 
     private static void defineAst(
@@ -45,8 +49,10 @@ public class GenerateAst {
 
             for (String type: types) {
                 String className = type.split(":")[0].trim();
-                String fields = type.split(":")[1].trim();
-                defineType(writer, baseName, className, fields);
+                String[] parts = type.split(":")[1].split("\\|"); // anything after a '|' is mutable state filled in by later passes
+                String fields = parts[0].trim().replace("?", ""); // a '?' only tells the serializer the field can be null
+                String state = parts.length > 1 ? parts[1].trim() : null;
+                defineType(writer, baseName, className, fields, state);
             }
 
             writer.println();
@@ -71,7 +77,7 @@ public class GenerateAst {
     }
 
     private static void defineType (
-        PrintWriter writer, String baseName, String className, String fieldList
+        PrintWriter writer, String baseName, String className, String fieldList, String stateList
     ) {
         writer.println("  static class " + className + "  extends " + baseName + " {");
 
@@ -99,8 +105,273 @@ public class GenerateAst {
         for (String field : fields){
             writer.println("    final " + field + ";");
         }
+
+        // resolver/compiler state, not part of the constructor
+        if (stateList != null) {
+            writer.println();
+            for (String field : stateList.split(", ")) {
+                writer.println("    " + field + ";");
+            }
+        }
         writer.println("  }");
     }
 
+    /*
+     * Writes AstWriter and AstReader, the binary (de)serializers for the trees above. Only the constructor fields are
+     * stored, the state after the '|' belongs to later passes and gets recomputed after loading. Each node is a one
+     * byte tag (its position in the type list, 0 is null) followed by its fields in declaration order. The reader only
+     * takes a 0 tag for fields whose type is marked with a '?', anywhere else it means the file is corrupt.
+     */
+    private static void defineSerializer(String outputDir, List<String> exprTypes, List<String> stmtTypes)
+        throws IOException {
+            int schema = (exprTypes + "/" + stmtTypes).hashCode(); // changes whenever a node definition does
 
+            PrintWriter writer = new PrintWriter(outputDir + "/AstWriter.java", "UTF-8");
+            writer.println("package lox;");
+            writer.println();
+            writer.println("import java.io.DataOutputStream;");
+            writer.println("import java.io.IOException;");
+            writer.println("import java.io.UncheckedIOException;");
+            writer.println("import java.nio.charset.StandardCharsets;");
+            writer.println("import java.util.HashMap;");
+            writer.println("import java.util.List;");
+            writer.println("import java.util.Map;");
+            writer.println();
+            writer.println("// generated by tool/GenerateAst, edit the node definitions there instead");
+            writer.println("class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {");
+            writer.println("    static final int SCHEMA = " + schema + ";");
+            writer.println();
+            writer.println("    private final DataOutputStream out;");
+            writer.println("    private final Map<String, Integer> strings = new HashMap<>(); // every name is written out once, then referenced by index");
+            writer.println();
+            writer.println("    AstWriter(DataOutputStream out) {");
+            writer.println("        this.out = out;");
+            writer.println("    }");
+            writer.println();
+            writer.println("    void writeStatements(List<Stmt> statements) throws IOException {");
+            writer.println("        try {");
+            writer.println("            writeStmtList(statements);");
+            writer.println("        } catch (UncheckedIOException e) { // the visitor methods can't throw it themselves");
+            writer.println("            throw e.getCause();");
+            writer.println("        }");
+            writer.println("    }");
+            defineWriterTypes(writer, "Expr", exprTypes);
+            defineWriterTypes(writer, "Stmt", stmtTypes);
+            writer.println();
+            writer.println("    private void writeExpr(Expr expr) {");
+            writer.println("        if (expr == null) writeByte(0); else expr.accept(this);");
+            writer.println("    }");
+            writer.println();
+            writer.println("    private void writeStmt(Stmt stmt) {");
+            writer.println("        if (stmt == null) writeByte(0); else stmt.accept(this);");
+            writer.println("    }");
+            writer.println();
+            writer.println("    private void writeStmtList(List<Stmt> statements) {");
+            writer.println("        writeInt(statements.size());");
+            writer.println("        for (Stmt statement : statements) writeStmt(statement);");
+            writer.println("    }");
+            writer.println();
+            writer.println("    private void writeToken(Token token) {");
+            writer.println("        writeByte(token.type.ordinal());");
+            writer.println("        writeString(token.lexeme);");
+            writer.println("        writeObject(token.literal);");
+            writer.println("        writeInt(token.line); // RuntimeErrors still need to report the right line");
+            writer.println("    }");
+            writer.println();
+            writer.println("    private void writeObject(Object value) {");
+            writer.println("        if (value == null) {");
+            writer.println("            writeByte(0);");
+            writer.println("        } else if (value instanceof Double) {");
+            writer.println("            writeByte(1);");
+            writer.println("            try {");
+            writer.println("                out.writeDouble((double)value);");
+            writer.println("            } catch (IOException e) {");
+            writer.println("                throw new UncheckedIOException(e);");
+            writer.println("            }");
+            writer.println("        } else if (value instanceof String) {");
+            writer.println("            writeByte(2);");
+            writer.println("            writeString((String)value);");
+            writer.println("        } else if (value instanceof Boolean) {");
+            writer.println("            writeByte((boolean)value ? 3 : 4);");
+            writer.println("        } else {");
+            writer.println("            throw new IllegalArgumentException(\"Can't serialize \" + value.getClass().getSimpleName() + \" literals.\");");
+            writer.println("        }");
+            writer.println("    }");
+            writer.println();
+            writer.println("    private void writeString(String value) {");
+            writer.println("        Integer index = strings.get(value);");
+            writer.println("        if (index != null) {");
+            writer.println("            writeInt(index);");
+            writer.println("            return;");
+            writer.println("        }");
+            writer.println("        writeInt(strings.size()); // the next free index means a new string follows");
+            writer.println("        strings.put(value, strings.size());");
+            writer.println("        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);");
+            writer.println("        writeInt(bytes.length);");
+            writer.println("        try {");
+            writer.println("            out.write(bytes);");
+            writer.println("        } catch (IOException e) {");
+            writer.println("            throw new UncheckedIOException(e);");
+            writer.println("        }");
+            writer.println("    }");
+            writer.println();
+            writer.println("    private void writeByte(int value) {");
+            writer.println("        try {");
+            writer.println("            out.writeByte(value);");
+            writer.println("        } catch (IOException e) {");
+            writer.println("            throw new UncheckedIOException(e);");
+            writer.println("        }");
+            writer.println("    }");
+            writer.println();
+            writer.println("    private void writeInt(int value) { // 7 bits per byte, high bit set means more follow; lines and indexes are mostly 1 byte");
+            writer.println("        while ((value & ~0x7f) != 0) {");
+            writer.println("            writeByte((value & 0x7f) | 0x80);");
+            writer.println("            value >>>= 7;");
+            writer.println("        }");
+            writer.println("        writeByte(value);");
+            writer.println("    }");
+            writer.println("}");
+            writer.close();
+
+            PrintWriter reader = new PrintWriter(outputDir + "/AstReader.java", "UTF-8");
+            reader.println("package lox;");
+            reader.println();
+            reader.println("import java.io.IOException;");
+            reader.println("import java.nio.ByteBuffer;");
+            reader.println("import java.nio.charset.StandardCharsets;");
+            reader.println("import java.util.ArrayList;");
+            reader.println("import java.util.List;");
+            reader.println();
+            reader.println("// generated by tool/GenerateAst, edit the node definitions there instead");
+            reader.println("class AstReader { // reads from a buffer holding the whole file, a stream costs a call per byte");
+            reader.println("    private static final TokenType[] TOKEN_TYPES = TokenType.values();");
+            reader.println();
+            reader.println("    private final ByteBuffer in; // running off the end throws BufferUnderflowException");
+            reader.println("    private final List<String> strings = new ArrayList<>();");
+            reader.println();
+            reader.println("    AstReader(ByteBuffer in) {");
+            reader.println("        this.in = in;");
+            reader.println("    }");
+            reader.println();
+            reader.println("    List<Stmt> readStatements() throws IOException {");
+            reader.println("        return readStmtList();");
+            reader.println("    }");
+            defineReaderTypes(reader, "Expr", exprTypes, (exprTypes + "/" + stmtTypes).contains("Expr? "));
+            defineReaderTypes(reader, "Stmt", stmtTypes, (exprTypes + "/" + stmtTypes).contains("Stmt? "));
+            reader.println();
+            reader.println("    private List<Stmt> readStmtList() throws IOException {");
+            reader.println("        int size = readInt();");
+            reader.println("        if (size < 0) throw new IOException(\"Corrupt AST file: negative list size.\");");
+            reader.println("        List<Stmt> statements = new ArrayList<>(Math.min(size, 1024));");
+            reader.println("        for (int i = 0; i < size; i++) statements.add(readStmt());");
+            reader.println("        return statements;");
+            reader.println("    }");
+            reader.println();
+            reader.println("    private Token readToken() throws IOException {");
+            reader.println("        int type = Byte.toUnsignedInt(in.get());");
+            reader.println("        if (type >= TOKEN_TYPES.length) throw new IOException(\"Corrupt AST file: unknown token type \" + type + \".\");");
+            reader.println("        return new Token(TOKEN_TYPES[type], readString(), readObject(), readInt());");
+            reader.println("    }");
+            reader.println();
+            reader.println("    private Object readObject() throws IOException {");
+            reader.println("        int tag = Byte.toUnsignedInt(in.get());");
+            reader.println("        switch (tag) {");
+            reader.println("            case 0: return null;");
+            reader.println("            case 1: return in.getDouble();");
+            reader.println("            case 2: return readString();");
+            reader.println("            case 3: return true;");
+            reader.println("            case 4: return false;");
+            reader.println("            default: throw new IOException(\"Corrupt AST file: unknown value tag \" + tag + \".\");");
+            reader.println("        }");
+            reader.println("    }");
+            reader.println();
+            reader.println("    private int readInt() throws IOException {");
+            reader.println("        int value = 0;");
+            reader.println("        for (int shift = 0; shift < 35; shift += 7) {");
+            reader.println("            int b = Byte.toUnsignedInt(in.get());");
+            reader.println("            value |= (b & 0x7f) << shift;");
+            reader.println("            if ((b & 0x80) == 0) return value;");
+            reader.println("        }");
+            reader.println("        throw new IOException(\"Corrupt AST file: int too long.\");");
+            reader.println("    }");
+            reader.println();
+            reader.println("    private String readString() throws IOException {");
+            reader.println("        int index = readInt();");
+            reader.println("        if (index >= 0 && index < strings.size()) return strings.get(index);");
+            reader.println("        if (index != strings.size()) throw new IOException(\"Corrupt AST file: bad string index \" + index + \".\");");
+            reader.println();
+            reader.println("        int length = readInt();");
+            reader.println("        if (length < 0) throw new IOException(\"Corrupt AST file: negative string length.\");");
+            reader.println("        if (length > in.remaining()) throw new IOException(\"Corrupt AST file: truncated string.\");");
+            reader.println("        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);");
+            reader.println("        in.position(in.position() + length);");
+            reader.println("        strings.add(value);");
+            reader.println("        return value;");
+            reader.println("    }");
+            reader.println("}");
+            reader.close();
+    }
+
+    private static void defineWriterTypes(PrintWriter writer, String baseName, List<String> types) {
+        for (String type : types) {
+            String className = type.split(":")[0].trim();
+            String fieldList = type.split(":")[1].split("\\|")[0].trim();
+
+            writer.println();
+            writer.println("    @Override");
+            writer.println("    public Void visit" + className + baseName + "(" + baseName + "." + className + " " + baseName.toLowerCase() + ") {");
+            writer.println("        writeByte(" + (types.indexOf(type) + 1) + ");");
+            for (String field : fieldList.split(", ")) {
+                String fieldType = field.split(" ")[0];
+                String name = field.split(" ")[1];
+                writer.println("        " + serializerMethod("write", fieldType) + "(" + baseName.toLowerCase() + "." + name + ");");
+            }
+            writer.println("        return null;");
+            writer.println("    }");
+        }
+    }
+
+    private static void defineReaderTypes(PrintWriter reader, String baseName, List<String> types, boolean nullable) {
+        reader.println();
+        reader.println("    private " + baseName + " read" + baseName + "() throws IOException {");
+        reader.println("        int tag = Byte.toUnsignedInt(in.get());");
+        reader.println("        switch (tag) {");
+        reader.println("            case 0: throw new IOException(\"Corrupt AST file: null " + baseName + " where there can't be one.\");");
+        for (String type : types) {
+            String className = type.split(":")[0].trim();
+            String fieldList = type.split(":")[1].split("\\|")[0].trim();
+
+            List<String> reads = new ArrayList<>();
+            for (String field : fieldList.split(", ")) reads.add(serializerMethod("read", field.split(" ")[0]) + "()");
+            // arguments are evaluated left to right, which is exactly the order the writer wrote them in
+            reader.println("            case " + (types.indexOf(type) + 1) + ": return new " + baseName + "." + className
+                    + "(" + String.join(", ", reads) + ");");
+        }
+        reader.println("            default: throw new IOException(\"Corrupt AST file: unknown " + baseName + " tag \" + tag + \".\");");
+        reader.println("        }");
+        reader.println("    }");
+        if (!nullable) return;
+
+        reader.println();
+        reader.println("    private " + baseName + " read" + baseName + "OrNull() throws IOException { // for the fields marked with a '?'");
+        reader.println("        if (in.get(in.position()) != 0) return read" + baseName + "();");
+        reader.println("        in.get();");
+        reader.println("        return null;");
+        reader.println("    }");
+    }
+
+    private static String serializerMethod(String prefix, String fieldType) {
+        if (fieldType.endsWith("?")) { // the writer already writes null as a 0 tag, only the reader needs to know
+            String method = serializerMethod(prefix, fieldType.substring(0, fieldType.length() - 1));
+            return prefix.equals("read") ? method + "OrNull" : method;
+        }
+        switch (fieldType) {
+            case "Expr": return prefix + "Expr";
+            case "Stmt": return prefix + "Stmt";
+            case "List<Stmt>": return prefix + "StmtList";
+            case "Token": return prefix + "Token";
+            case "Object": return prefix + "Object";
+            default: throw new IllegalArgumentException("Don't know how to serialize a field of type " + fieldType);
+        }
+    }
 }